@@ -0,0 +1,84 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plain JVM replacement for the framework class, whose message queue needs
+ * native code. Every handler posts to the same daemon thread, which stands for
+ * the UI thread, whatever the thread (or looper) it was created on. Only the
+ * methods used by the library are provided.
+ */
+public class Handler {
+    private static final ScheduledExecutorService sMainThread =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "main");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    // Callbacks posted and not run yet
+    private final List<Posted> mPosted = new ArrayList<Posted>();
+
+    public Handler() {
+    }
+
+    public Handler(Looper looper) {
+    }
+
+    public final boolean post(Runnable r) {
+        return postDelayed(r, 0);
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        Posted posted = new Posted(r);
+        synchronized (mPosted) {
+            mPosted.add(posted);
+            posted.mFuture = sMainThread.schedule(posted, Math.max(delayMillis, 0),
+                    TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        synchronized (mPosted) {
+            for (int i = mPosted.size() - 1; i >= 0; i--) {
+                Posted posted = mPosted.get(i);
+                if (posted.mCallback == r) {
+                    posted.mFuture.cancel(false);
+                    mPosted.remove(i);
+                }
+            }
+        }
+    }
+
+    public final void removeCallbacksAndMessages(Object token) {
+        synchronized (mPosted) {
+            for (Posted posted : mPosted) posted.mFuture.cancel(false);
+            mPosted.clear();
+        }
+    }
+
+    private class Posted implements Runnable {
+        final Runnable mCallback;
+        ScheduledFuture<?> mFuture;
+
+        Posted(Runnable callback) {
+            mCallback = callback;
+        }
+
+        public void run() {
+            synchronized (mPosted) {
+                if (!mPosted.remove(this)) return;
+            }
+            mCallback.run();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package android.text;
+
+/**
+ * Plain JVM replacement for the framework class, whose static initializer
+ * needs native code. Only the methods used by the library are provided.
+ */
+public class TextUtils {
+    public static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+}
@@ -0,0 +1,36 @@
+package com.android.vending.billing;
+
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.IInterface;
+import android.os.RemoteException;
+
+/**
+ * Plain JVM stand-in for the interface generated from IInAppBillingService.aidl,
+ * which is only produced by the Android build. It declares the same methods, so
+ * the benchmarks can drive the library code against fake in-process services.
+ */
+public interface IInAppBillingService extends IInterface {
+    int isBillingSupported(int apiVersion, String packageName, String type) throws RemoteException;
+
+    Bundle getSkuDetails(int apiVersion, String packageName, String type, Bundle skusBundle)
+            throws RemoteException;
+
+    Bundle getBuyIntent(int apiVersion, String packageName, String sku, String type,
+            String developerPayload) throws RemoteException;
+
+    Bundle getPurchases(int apiVersion, String packageName, String type, String continuationToken)
+            throws RemoteException;
+
+    int consumePurchase(int apiVersion, String packageName, String purchaseToken)
+            throws RemoteException;
+
+    public static abstract class Stub {
+        public static final String DESCRIPTOR = "com.android.vending.billing.IInAppBillingService";
+
+        public static IInAppBillingService asInterface(IBinder obj) {
+            if (obj == null) return null;
+            return (IInAppBillingService) obj.queryLocalInterface(DESCRIPTOR);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.squallium.commons.inapp.amazon;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.squallium.commons.inapp.amazon.AppPurchasingObserver.PurchaseData;
+import com.squallium.commons.inapp.amazon.AppPurchasingObserver.PurchaseDataJSON;
+import com.squallium.commons.inapp.amazon.AppPurchasingObserver.RequestState;
+import com.squallium.commons.inapp.amazon.AppPurchasingObserver.SKUData;
+import com.squallium.commons.inapp.amazon.AppPurchasingObserver.SKUDataJSON;
+
+/**
+ * Serialization of the purchase and SKU records that
+ * {@link AppPurchasingObserver.PurchaseDataStorage} keeps in the shared
+ * preferences: toJSON, fromJSON and the round trip.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ObserverJsonBenchmark {
+
+    private PurchaseData mPurchaseData;
+    private String mPurchaseDataJson;
+    private SKUData mSkuData;
+    private String mSkuDataJson;
+
+    @Setup
+    public void setUp() {
+        mPurchaseData = new PurchaseData("7c0a7d6f-0b3d-4a7b-9a5e-2f1e6c2d9b41");
+        mPurchaseData.setUserId("amzn1.account.AH2ZBJ3QHOFMLKTB4YKEUQ3RM3XQ");
+        mPurchaseData.setRequestState(RequestState.FULFILLED);
+        mPurchaseData.setSKU("com.squallium.commons.inapp.sample.gems_100");
+        mPurchaseData.setPurchaseToken("eyJ0eXBlIjoiQ09OU1VNQUJMRSIsInNrdSI6ImNvbS5zcXVhbGxpdW0"
+                + "uY29tbW9ucy5pbmFwcC5zYW1wbGUuZ2Vtc18xMDAifQ:1:11:xJx5rN2Y3QSZ4mlw0UDKlg==");
+        mPurchaseData.setPurchaseTokenFulfilled();
+        mPurchaseDataJson = PurchaseDataJSON.toJSON(mPurchaseData);
+
+        mSkuData = new SKUData("com.squallium.commons.inapp.sample.gems_100");
+        mSkuData.setFulfilledCount(12);
+        mSkuData.setFulfilledQuantity(1200);
+        mSkuData.setConsumedQuantity(1150);
+        mSkuDataJson = SKUDataJSON.toJSON(mSkuData);
+    }
+
+    @Benchmark
+    public String purchaseDataToJson() {
+        return PurchaseDataJSON.toJSON(mPurchaseData);
+    }
+
+    @Benchmark
+    public PurchaseData purchaseDataFromJson() {
+        return PurchaseDataJSON.fromJSON(mPurchaseDataJson);
+    }
+
+    @Benchmark
+    public PurchaseData purchaseDataRoundTrip() {
+        return PurchaseDataJSON.fromJSON(PurchaseDataJSON.toJSON(mPurchaseData));
+    }
+
+    @Benchmark
+    public String skuDataToJson() {
+        return SKUDataJSON.toJSON(mSkuData);
+    }
+
+    @Benchmark
+    public SKUData skuDataFromJson() {
+        return SKUDataJSON.fromJSON(mSkuDataJson);
+    }
+
+    @Benchmark
+    public SKUData skuDataRoundTrip() {
+        return SKUDataJSON.fromJSON(SKUDataJSON.toJSON(mSkuData));
+    }
+}
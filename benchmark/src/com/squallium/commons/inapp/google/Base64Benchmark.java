@@ -0,0 +1,68 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Base64 decoding and encoding of the payloads of the billing service: a
+ * 2048-bit RSA signature (256 bytes), a public key (294 bytes) and a long
+ * purchase token. Compares the allocating methods with the ones that write
+ * into a caller-supplied buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Base64Benchmark {
+
+    @Param({"256", "294", "1024"})
+    public int bytes;
+
+    private byte[] mData;
+    private String mEncoded;
+    private byte[] mEncodeBuffer;
+    private byte[] mDecodeBuffer;
+
+    @Setup
+    public void setUp() {
+        mData = new byte[bytes];
+        new Random(42).nextBytes(mData);
+        mEncoded = Base64.encode(mData);
+        mEncodeBuffer = new byte[Base64.getEncodedLength(bytes)];
+        mDecodeBuffer = new byte[Base64.getMaxDecodedLength(mEncoded.length())];
+    }
+
+    @Benchmark
+    public byte[] decode() throws Base64DecoderException {
+        return Base64.decode(mEncoded);
+    }
+
+    @Benchmark
+    public int decodeTo() throws Base64DecoderException {
+        return Base64.decodeTo(mEncoded, 0, mEncoded.length(), mDecodeBuffer, 0);
+    }
+
+    @Benchmark
+    public String encode() {
+        return Base64.encode(mData);
+    }
+
+    @Benchmark
+    public int encodeTo() {
+        return Base64.encodeTo(mData, 0, mData.length, mEncodeBuffer, 0);
+    }
+}
@@ -0,0 +1,69 @@
+package com.squallium.commons.inapp.google;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Realistic payloads for the benchmarks: an RSA key pair like the ones of the
+ * Google Play Developer Console and purchases signed with it.
+ */
+class BenchmarkData {
+
+    // Number of distinct signed purchases; bigger batches repeat them
+    static final int DISTINCT_PURCHASES = 100;
+
+    final String base64PublicKey;
+    final List<String> purchaseData = new ArrayList<String>();
+    final List<String> signatures = new ArrayList<String>();
+    final List<String> skus = new ArrayList<String>();
+
+    /** Creates a key pair and count purchases signed with it. */
+    BenchmarkData(int count) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        base64PublicKey = Base64.encode(keyPair.getPublic().getEncoded());
+
+        Signature signer = Signature.getInstance("SHA1withRSA");
+        for (int i = 0; i < Math.min(count, DISTINCT_PURCHASES); i++) {
+            String json = purchaseJson(i);
+            signer.initSign(keyPair.getPrivate());
+            signer.update(json.getBytes());
+            skus.add("sku." + i);
+            purchaseData.add(json);
+            signatures.add(Base64.encode(signer.sign()));
+        }
+        for (int i = DISTINCT_PURCHASES; i < count; i++) {
+            skus.add("sku." + i);
+            purchaseData.add(purchaseData.get(i % DISTINCT_PURCHASES));
+            signatures.add(signatures.get(i % DISTINCT_PURCHASES));
+        }
+    }
+
+    /** Returns the JSON of a purchase as sent by Google Play. */
+    static String purchaseJson(int i) {
+        return "{\"orderId\":\"12999763169054705758.13" + (71000000 + i) + "\","
+                + "\"packageName\":\"com.squallium.commons.inapp.sample\","
+                + "\"productId\":\"sku." + i + "\","
+                + "\"purchaseTime\":" + (1400000000000L + i * 1000L) + ","
+                + "\"purchaseState\":0,"
+                + "\"developerPayload\":\"bGoa+V7g/yqDXvKRqq+JTFn4uQZbPiQJo4pf9RzJ\","
+                + "\"purchaseToken\":\"opaque-token-up-to-1000-characters.AO-J1Oy2fnXG"
+                + "kLHhVK1fbS8lD9wF6YlFKnHdsmqc45Jx1DgKm3xXjTEkZ0qLbDbF0aZ" + i + "\"}";
+    }
+
+    /** Returns the JSON of the details of a product as sent by Google Play. */
+    static String skuDetailsJson(int i) {
+        return "{\"productId\":\"sku." + i + "\","
+                + "\"type\":\"inapp\","
+                + "\"price\":\"\u20ac" + (i % 100) + ",99\","
+                + "\"price_amount_micros\":" + ((i % 100) * 1000000L + 990000L) + ","
+                + "\"price_currency_code\":\"EUR\","
+                + "\"title\":\"Pack of " + i + " gems (Sample Game)\","
+                + "\"description\":\"A pack of " + i + " gems to spend on power-ups, "
+                + "new levels and costumes for your characters.\"}";
+    }
+}
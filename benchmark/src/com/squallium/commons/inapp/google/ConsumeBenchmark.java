@@ -0,0 +1,57 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Consumption of a batch of purchases with a growing number of consumePurchase
+ * requests in flight, against a fake service with a fixed round trip per request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsumeBenchmark {
+
+    // Simulated round trip of each consumePurchase request
+    private static final long IPC_LATENCY_MICROS = 2000;
+
+    @Param({"1", "10", "50"})
+    public int purchases;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private IabHelper mHelper;
+    private List<Purchase> mPurchases;
+
+    @Setup
+    public void setUp() throws Exception {
+        mHelper = FakeBillingService.newHelper(new FakeBillingService(IPC_LATENCY_MICROS), null);
+        mHelper.setConsumeParallelism(parallelism);
+        mPurchases = new ArrayList<Purchase>(purchases);
+        for (int i = 0; i < purchases; i++) {
+            mPurchases.add(new Purchase(IabHelper.ITEM_TYPE_INAPP, BenchmarkData.purchaseJson(i), ""));
+        }
+    }
+
+    @Benchmark
+    public List<IabResult> consumeAll() {
+        return mHelper.consumeAll(mPurchases);
+    }
+}
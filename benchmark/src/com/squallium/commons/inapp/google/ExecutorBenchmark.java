@@ -0,0 +1,81 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A refresh/consume cycle through the asynchronous API: one queryInventoryAsync
+ * followed by a number of consumeAsync calls, against a fake service with a short
+ * round trip per call, until every listener has been called back. Compares the
+ * former thread-per-call dispatch with the shared {@link IabExecutors} pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutorBenchmark {
+
+    // Simulated round trip of each call to the service
+    private static final long IPC_LATENCY_MICROS = 50;
+
+    @Param({"threadPerCall", "sharedExecutor"})
+    public String dispatch;
+
+    @Param({"1", "10", "50"})
+    public int consumesPerCycle;
+
+    private IabHelper mHelper;
+    private List<Purchase> mPurchases;
+
+    @Setup
+    public void setUp() throws Exception {
+        mHelper = FakeBillingService.newHelper(new FakeBillingService(IPC_LATENCY_MICROS), null);
+        if (dispatch.equals("threadPerCall")) {
+            mHelper.setExecutor(new Executor() {
+                public void execute(Runnable command) {
+                    new Thread(command).start();
+                }
+            });
+        }
+        mPurchases = new ArrayList<Purchase>(consumesPerCycle);
+        for (int i = 0; i < consumesPerCycle; i++) {
+            mPurchases.add(new Purchase(IabHelper.ITEM_TYPE_INAPP, BenchmarkData.purchaseJson(i), ""));
+        }
+    }
+
+    @Benchmark
+    public void refreshAndConsume() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(consumesPerCycle + 1);
+        mHelper.queryInventoryAsync(false, new IabHelper.QueryInventoryFinishedListener() {
+            public void onQueryInventoryFinished(IabResult result, Inventory inv) {
+                done.countDown();
+            }
+        });
+        IabHelper.OnConsumeFinishedListener consumed = new IabHelper.OnConsumeFinishedListener() {
+            public void onConsumeFinished(Purchase purchase, IabResult result) {
+                done.countDown();
+            }
+        };
+        for (Purchase purchase : mPurchases) {
+            mHelper.consumeAsync(purchase, consumed);
+        }
+        done.await();
+    }
+}
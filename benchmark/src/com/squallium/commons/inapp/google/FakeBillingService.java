@@ -0,0 +1,161 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import android.content.ContextWrapper;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.RemoteException;
+
+import com.android.vending.billing.IInAppBillingService;
+
+/**
+ * In-process billing service for the benchmarks. Every call waits for a fixed
+ * simulated IPC latency and answers like Google Play would, including the cap
+ * on the number of SKUs returned by a single getSkuDetails request.
+ */
+class FakeBillingService implements IInAppBillingService {
+
+    static final String PACKAGE_NAME = "com.squallium.commons.inapp.benchmark";
+
+    // Simulated round trip of every call
+    private final long mLatencyNanos;
+
+    // JSON details returned by getSkuDetails, and item type, by sku
+    private final Map<String, String> mDetails = new HashMap<String, String>();
+    private final Map<String, String> mDetailsTypes = new HashMap<String, String>();
+
+    // Owned purchases returned by getPurchases, by item type
+    private final Map<String, List<String>> mPurchaseData = new HashMap<String, List<String>>();
+    private final Map<String, List<String>> mSignatures = new HashMap<String, List<String>>();
+    private final Map<String, List<String>> mOwnedSkus = new HashMap<String, List<String>>();
+
+    // Number of purchases returned per getPurchases page
+    private int mPageSize = 100;
+
+    FakeBillingService(long latencyMicros) {
+        mLatencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+    }
+
+    /** Creates a helper that is set up and bound to the given service. */
+    static IabHelper newHelper(IInAppBillingService service, String base64PublicKey) {
+        IabHelper helper = new IabHelper(new ContextWrapper(null) {
+            @Override
+            public String getPackageName() {
+                return PACKAGE_NAME;
+            }
+
+            @Override
+            public android.content.Context getApplicationContext() {
+                return this;
+            }
+        }, base64PublicKey);
+        helper.mService = service;
+        helper.mSetupDone = true;
+        helper.mSubscriptionsSupported = true;
+        return helper;
+    }
+
+    /** Adds a catalog of count SKUs of the given type and returns their ids. */
+    List<String> addCatalog(String itemType, String prefix, int count) {
+        List<String> skus = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            String sku = prefix + "." + i;
+            skus.add(sku);
+            mDetailsTypes.put(sku, itemType);
+            mDetails.put(sku, "{\"productId\":\"" + sku + "\",\"type\":\"" + itemType
+                    + "\",\"price\":\"$0.99\",\"title\":\"Item " + i
+                    + "\",\"description\":\"Benchmark item number " + i + "\"}");
+        }
+        return skus;
+    }
+
+    /** Adds an owned purchase returned by getPurchases. */
+    void addPurchase(String itemType, String sku, String purchaseData, String signature) {
+        list(mOwnedSkus, itemType).add(sku);
+        list(mPurchaseData, itemType).add(purchaseData);
+        list(mSignatures, itemType).add(signature);
+    }
+
+    void setPageSize(int pageSize) {
+        mPageSize = pageSize;
+    }
+
+    public IBinder asBinder() {
+        return null;
+    }
+
+    public int isBillingSupported(int apiVersion, String packageName, String type) {
+        ipc();
+        return IabHelper.BILLING_RESPONSE_RESULT_OK;
+    }
+
+    public Bundle getSkuDetails(int apiVersion, String packageName, String type, Bundle skusBundle) {
+        ipc();
+        ArrayList<String> skus = skusBundle.getStringArrayList(IabHelper.GET_SKU_DETAILS_ITEM_LIST);
+        ArrayList<String> details = new ArrayList<String>();
+        int count = Math.min(skus.size(), IabHelper.GET_SKU_DETAILS_MAX_SKUS);
+        for (int i = 0; i < count; i++) {
+            // like Google Play, only answer for SKUs of the requested type
+            String json = mDetails.get(skus.get(i));
+            if (json != null && type.equals(mDetailsTypes.get(skus.get(i)))) details.add(json);
+        }
+        Bundle result = new Bundle();
+        result.putInt(IabHelper.RESPONSE_CODE, IabHelper.BILLING_RESPONSE_RESULT_OK);
+        result.putStringArrayList(IabHelper.RESPONSE_GET_SKU_DETAILS_LIST, details);
+        return result;
+    }
+
+    public Bundle getBuyIntent(int apiVersion, String packageName, String sku, String type,
+            String developerPayload) {
+        ipc();
+        Bundle result = new Bundle();
+        result.putInt(IabHelper.RESPONSE_CODE, IabHelper.BILLING_RESPONSE_RESULT_ERROR);
+        return result;
+    }
+
+    public Bundle getPurchases(int apiVersion, String packageName, String type,
+            String continuationToken) {
+        ipc();
+        List<String> skus = list(mOwnedSkus, type);
+        int from = continuationToken == null ? 0 : Integer.parseInt(continuationToken);
+        int to = Math.min(from + mPageSize, skus.size());
+
+        Bundle result = new Bundle();
+        result.putInt(IabHelper.RESPONSE_CODE, IabHelper.BILLING_RESPONSE_RESULT_OK);
+        result.putStringArrayList(IabHelper.RESPONSE_INAPP_ITEM_LIST,
+                new ArrayList<String>(skus.subList(from, to)));
+        result.putStringArrayList(IabHelper.RESPONSE_INAPP_PURCHASE_DATA_LIST,
+                new ArrayList<String>(list(mPurchaseData, type).subList(from, to)));
+        result.putStringArrayList(IabHelper.RESPONSE_INAPP_SIGNATURE_LIST,
+                new ArrayList<String>(list(mSignatures, type).subList(from, to)));
+        if (to < skus.size()) {
+            result.putString(IabHelper.INAPP_CONTINUATION_TOKEN, String.valueOf(to));
+        }
+        return result;
+    }
+
+    public int consumePurchase(int apiVersion, String packageName, String purchaseToken)
+            throws RemoteException {
+        ipc();
+        return IabHelper.BILLING_RESPONSE_RESULT_OK;
+    }
+
+    private void ipc() {
+        if (mLatencyNanos > 0) LockSupport.parkNanos(mLatencyNanos);
+    }
+
+    private static List<String> list(Map<String, List<String>> map, String itemType) {
+        List<String> list = map.get(itemType);
+        if (list == null) {
+            list = new ArrayList<String>();
+            map.put(itemType, list);
+        }
+        return list;
+    }
+}
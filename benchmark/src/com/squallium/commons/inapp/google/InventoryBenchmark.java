@@ -0,0 +1,88 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups in an {@link Inventory}: by SKU, the list of owned SKUs of a type
+ * and the purchases in a state. A quarter of the purchases are subscriptions,
+ * and one in ten has been refunded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InventoryBenchmark {
+
+    @Param({"10", "1000"})
+    public int purchases;
+
+    private Inventory mInventory;
+    private String[] mSkus;
+    private int mNext;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkData data = new BenchmarkData(purchases);
+        mInventory = new Inventory();
+        mSkus = new String[purchases];
+        for (int i = 0; i < purchases; i++) {
+            String itemType = (i % 4 == 0) ? IabHelper.ITEM_TYPE_SUBS : IabHelper.ITEM_TYPE_INAPP;
+            String json = BenchmarkData.purchaseJson(i);
+            if (i % 10 == 0) json = json.replace("\"purchaseState\":0", "\"purchaseState\":2");
+            mInventory.addPurchase(new Purchase(itemType, json, data.signatures.get(i)));
+            mInventory.addSkuDetails(new SkuDetails(itemType, BenchmarkData.skuDetailsJson(i)));
+            mSkus[i] = "sku." + i;
+        }
+    }
+
+    // Cycles through the owned SKUs, so lookups don't always hit the same entry
+    private String nextSku() {
+        mNext = (mNext + 1) % mSkus.length;
+        return mSkus[mNext];
+    }
+
+    @Benchmark
+    public Purchase getPurchase() {
+        return mInventory.getPurchase(nextSku());
+    }
+
+    @Benchmark
+    public boolean hasPurchase() {
+        return mInventory.hasPurchase(nextSku());
+    }
+
+    @Benchmark
+    public SkuDetails getSkuDetails() {
+        return mInventory.getSkuDetails(nextSku());
+    }
+
+    @Benchmark
+    public List<String> getAllOwnedSkus() {
+        return mInventory.getAllOwnedSkus();
+    }
+
+    @Benchmark
+    public List<String> getAllOwnedSkusOfType() {
+        return mInventory.getAllOwnedSkus(IabHelper.ITEM_TYPE_SUBS);
+    }
+
+    @Benchmark
+    public List<Purchase> getPurchasesByState() {
+        return mInventory.getPurchasesByState(2);
+    }
+}
@@ -0,0 +1,54 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Wall-clock time of a full inventory query, running the products and
+ * subscriptions branches one after the other or concurrently, against a fake
+ * service with a fixed round trip per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InventoryQueryBenchmark {
+
+    // Simulated round trip of each call to the service
+    private static final long IPC_LATENCY_MICROS = 2000;
+
+    @Param({"false", "true"})
+    public boolean concurrent;
+
+    private IabHelper mHelper;
+    private List<String> mItemSkus;
+    private List<String> mSubsSkus;
+
+    @Setup
+    public void setUp() {
+        FakeBillingService service = new FakeBillingService(IPC_LATENCY_MICROS);
+        mItemSkus = service.addCatalog(IabHelper.ITEM_TYPE_INAPP, "item", 40);
+        mSubsSkus = service.addCatalog(IabHelper.ITEM_TYPE_SUBS, "subs", 40);
+        mHelper = FakeBillingService.newHelper(service, null);
+        mHelper.setConcurrentInventoryQuery(concurrent);
+    }
+
+    @Benchmark
+    public Inventory queryInventory() throws Exception {
+        return mHelper.queryInventory(true, mItemSkus, mSubsSkus);
+    }
+}
@@ -0,0 +1,63 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of recording one measured call (start and finish) in the default metrics
+ * sink, from one thread and from four at once. Run with -prof gc to check that
+ * recording doesn't allocate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+
+    private IabMetrics mMetrics;
+    private IabHelper mHelper;
+
+    // Same calls with metrics disabled: the cost of the clock alone
+    private IabHelper mBaselineHelper;
+
+    @Setup
+    public void setUp() {
+        mMetrics = new IabMetrics();
+        mHelper = FakeBillingService.newHelper(new FakeBillingService(0), null);
+        mHelper.setMetricsSink(mMetrics);
+        mBaselineHelper = FakeBillingService.newHelper(new FakeBillingService(0), null);
+        mBaselineHelper.setMetricsSink(null);
+    }
+
+    @Benchmark
+    public long record() {
+        long start = mHelper.startMetric(IabMetrics.GET_PURCHASES);
+        return mHelper.finishMetric(IabMetrics.GET_PURCHASES, IabHelper.BILLING_RESPONSE_RESULT_OK, start);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long recordContended() {
+        long start = mHelper.startMetric(IabMetrics.GET_PURCHASES);
+        return mHelper.finishMetric(IabMetrics.GET_PURCHASES, IabHelper.BILLING_RESPONSE_RESULT_OK, start);
+    }
+
+    @Benchmark
+    public long recordDisabled() {
+        long start = mBaselineHelper.startMetric(IabMetrics.GET_PURCHASES);
+        return mBaselineHelper.finishMetric(IabMetrics.GET_PURCHASES, IabHelper.BILLING_RESPONSE_RESULT_OK, start);
+    }
+}
@@ -0,0 +1,63 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction of {@link Purchase} and {@link SkuDetails} from the JSON
+ * returned by getPurchases and getSkuDetails, alone and followed by the
+ * getters most callers use.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ModelBenchmark {
+
+    private String mPurchaseJson;
+    private String mSignature;
+    private String mSkuDetailsJson;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkData data = new BenchmarkData(1);
+        mPurchaseJson = data.purchaseData.get(0);
+        mSignature = data.signatures.get(0);
+        mSkuDetailsJson = BenchmarkData.skuDetailsJson(0);
+    }
+
+    @Benchmark
+    public Purchase purchase() throws JSONException {
+        return new Purchase(IabHelper.ITEM_TYPE_INAPP, mPurchaseJson, mSignature);
+    }
+
+    @Benchmark
+    public int purchaseSkuAndToken() throws JSONException {
+        Purchase p = new Purchase(IabHelper.ITEM_TYPE_INAPP, mPurchaseJson, mSignature);
+        return p.getSku().length() + p.getToken().length();
+    }
+
+    @Benchmark
+    public SkuDetails skuDetails() throws JSONException {
+        return new SkuDetails(IabHelper.ITEM_TYPE_INAPP, mSkuDetailsJson);
+    }
+
+    @Benchmark
+    public int skuDetailsPrice() throws JSONException {
+        SkuDetails d = new SkuDetails(IabHelper.ITEM_TYPE_INAPP, mSkuDetailsJson);
+        return d.getSku().length() + d.getPrice().length();
+    }
+}
@@ -0,0 +1,86 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Verification of the signatures of a batch of purchases: the former path,
+ * which decodes the key and creates a Signature for every purchase, against
+ * the cached {@link PurchaseVerifier}, on one thread and spread over the
+ * shared pool. With cache=true, the purchases are found in the
+ * {@link VerificationCache} after the first invocation, as they are on
+ * every inventory refresh but the first.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SecurityBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int purchases;
+
+    @Param({"false", "true"})
+    public boolean cache;
+
+    private String mKey;
+    private List<String> mData;
+    private List<String> mSignatures;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkData data = new BenchmarkData(purchases);
+        mKey = data.base64PublicKey;
+        mData = data.purchaseData;
+        mSignatures = data.signatures;
+
+        VerificationCache verificationCache = Security.getVerificationCache();
+        verificationCache.clear();
+        verificationCache.setMaxSize(cache ? Math.max(purchases, VerificationCache.DEFAULT_MAX_SIZE) : 0);
+    }
+
+    @Benchmark
+    public int uncachedKey() {
+        int verified = 0;
+        for (int i = 0; i < mData.size(); i++) {
+            if (Security.verify(Security.generatePublicKey(mKey), mData.get(i), mSignatures.get(i))) {
+                verified++;
+            }
+        }
+        return verified;
+    }
+
+    @Benchmark
+    public int verifyPurchase() {
+        int verified = 0;
+        for (int i = 0; i < mData.size(); i++) {
+            if (Security.verifyPurchase(mKey, mData.get(i), mSignatures.get(i))) verified++;
+        }
+        return verified;
+    }
+
+    @Benchmark
+    public boolean[] verifyPurchases() {
+        return Security.verifyPurchases(mKey, mData, mSignatures);
+    }
+
+    @Benchmark
+    public boolean[] verifyPurchasesParallel() {
+        return Security.verifyPurchases(mKey, mData, mSignatures, IabExecutors.getDefault(),
+                IabExecutors.POOL_SIZE);
+    }
+}
@@ -0,0 +1,42 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Billing support checks of the setup (products and subscriptions) against a
+ * fake service with a fixed round trip per isBillingSupported call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SetupBenchmark {
+
+    // Simulated round trip of each isBillingSupported call
+    private static final long IPC_LATENCY_MICROS = 2000;
+
+    private IabHelper mHelper;
+
+    @Setup
+    public void setUp() {
+        mHelper = FakeBillingService.newHelper(new FakeBillingService(IPC_LATENCY_MICROS), null);
+    }
+
+    @Benchmark
+    public IabResult checkBillingSupport() {
+        return mHelper.checkBillingSupport();
+    }
+}
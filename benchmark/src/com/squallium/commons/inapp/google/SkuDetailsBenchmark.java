@@ -0,0 +1,66 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scaling of the SKU details query with the size of the catalog and the
+ * number of getSkuDetails requests in flight, against a fake service with a
+ * fixed round trip per request. Half the catalog is made of products and
+ * half of subscriptions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SkuDetailsBenchmark {
+
+    // Simulated round trip of each getSkuDetails request
+    private static final long IPC_LATENCY_MICROS = 2000;
+
+    @Param({"20", "200", "1000"})
+    public int catalogSize;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private IabHelper mHelper;
+    private List<String> mItemSkus;
+    private List<String> mSubsSkus;
+
+    @Setup
+    public void setUp() {
+        FakeBillingService service = new FakeBillingService(IPC_LATENCY_MICROS);
+        mItemSkus = service.addCatalog(IabHelper.ITEM_TYPE_INAPP, "item", catalogSize / 2);
+        mSubsSkus = service.addCatalog(IabHelper.ITEM_TYPE_SUBS, "subs", catalogSize / 2);
+        mHelper = FakeBillingService.newHelper(service, null);
+        mHelper.setSkuDetailsParallelism(parallelism);
+    }
+
+    @Benchmark
+    public Inventory querySkuDetails() throws Exception {
+        Inventory inv = new Inventory();
+        mHelper.querySkuDetails(IabHelper.ITEM_TYPE_INAPP, inv, mItemSkus);
+        mHelper.querySkuDetails(IabHelper.ITEM_TYPE_SUBS, inv, mSubsSkus);
+        return inv;
+    }
+
+    @Benchmark
+    public Inventory queryInventory() throws Exception {
+        return mHelper.queryInventory(true, mItemSkus, mSubsSkus);
+    }
+}
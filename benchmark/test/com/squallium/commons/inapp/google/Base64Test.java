@@ -0,0 +1,161 @@
+package com.squallium.commons.inapp.google;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The buffer-filling encodeTo and decodeTo against the allocating encode and decode
+ * they replace on the hot path.
+ */
+public class Base64Test {
+
+    private static final int ROUNDS = 2000;
+
+    // Characters that may appear in (possibly broken) Base64 of a signature
+    private static final String CHARS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/=\n \t-_*";
+
+    private final Random mRandom = new Random(42);
+
+    @Test
+    public void encodeToMatchesEncode() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[] source = randomBytes(mRandom.nextInt(300));
+            int off = mRandom.nextInt(source.length + 1);
+            int len = mRandom.nextInt(source.length - off + 1);
+            String expected = Base64.encode(Arrays.copyOfRange(source, off, off + len));
+            int outLen = Base64.getEncodedLength(len);
+
+            byte[] array = new byte[outLen + 8];
+            assertEquals(outLen, Base64.encodeTo(source, off, len, array, 3));
+            assertEquals(expected, new String(array, 3, outLen, "US-ASCII"));
+
+            ByteBuffer heap = ByteBuffer.allocate(outLen + 8);
+            heap.position(5);
+            assertEquals(outLen, Base64.encodeTo(source, off, len, heap));
+            assertEquals(5 + outLen, heap.position());
+            assertEquals(expected, new String(heap.array(), 5, outLen, "US-ASCII"));
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(outLen + 8);
+            direct.position(5);
+            assertEquals(outLen, Base64.encodeTo(source, off, len, direct));
+            assertEquals(5 + outLen, direct.position());
+            byte[] written = new byte[outLen];
+            direct.position(5);
+            direct.get(written);
+            assertEquals(expected, new String(written, "US-ASCII"));
+        }
+    }
+
+    @Test
+    public void decodeToMatchesDecodeOfValidInput() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[] data = randomBytes(mRandom.nextInt(300));
+            String encoded = Base64.encode(data);
+            switch (round % 3) {
+                case 1:
+                    // unpadded, like web safe encodings
+                    encoded = encoded.replace("=", "");
+                    break;
+                case 2:
+                    // broken into lines
+                    encoded = new String(Base64.encode(data, 0, data.length,
+                            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+                                    .getBytes("US-ASCII"), 76), "US-ASCII");
+                    break;
+            }
+            assertArrayEquals(data, Base64.decode(encoded));
+            assertDecodesLikeDecode(encoded);
+        }
+    }
+
+    @Test
+    public void decodeToMatchesDecodeOfArbitraryInput() throws Exception {
+        String[] broken = {
+            "", "A", "AB", "ABC", "ABCD", "A===", "AB==", "ABC=", "=ABC", "AB=C", "AB==CD",
+            "ABCD=", "ABC==", "AB*D", "AB D", "AB\nCD", "ABC=\n", "AB-_", "ABCDE"
+        };
+        for (String s : broken) {
+            assertDecodesLikeDecode(s);
+        }
+        for (int round = 0; round < ROUNDS * 5; round++) {
+            StringBuilder sb = new StringBuilder();
+            int len = mRandom.nextInt(12);
+            for (int i = 0; i < len; i++) {
+                sb.append(CHARS.charAt(mRandom.nextInt(CHARS.length())));
+            }
+            assertDecodesLikeDecode(sb.toString());
+        }
+    }
+
+    @Test
+    public void decodeToRejectsNonAscii() throws Exception {
+        // decode crops every byte to seven bits; decodeTo reads characters and refuses them
+        try {
+            Base64.decodeTo("AB\u00c3D", 0, 4, new byte[8], 0);
+            fail("non-ASCII character accepted");
+        }
+        catch (Base64DecoderException e) {
+            // expected
+        }
+    }
+
+    // Decodes s with decode and with every variant of decodeTo, and checks they
+    // agree on the bytes or on rejecting it
+    private void assertDecodesLikeDecode(String s) throws Exception {
+        byte[] expected;
+        try {
+            expected = Base64.decode(s);
+        }
+        catch (Base64DecoderException e) {
+            expected = null;
+        }
+        String padded = "xy" + s + "z";
+        int maxLen = Base64.getMaxDecodedLength(s.length());
+
+        byte[] array = new byte[maxLen + 4];
+        try {
+            int outLen = Base64.decodeTo(padded, 2, s.length(), array, 3);
+            assertDecoded(s, expected, Arrays.copyOfRange(array, 3, 3 + outLen));
+        }
+        catch (Base64DecoderException e) {
+            assertRejected(s, expected);
+        }
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(maxLen + 4);
+        direct.position(2);
+        try {
+            int outLen = Base64.decodeTo(padded, 2, s.length(), direct);
+            assertEquals(2 + outLen, direct.position());
+            byte[] written = new byte[outLen];
+            direct.position(2);
+            direct.get(written);
+            assertDecoded(s, expected, written);
+        }
+        catch (Base64DecoderException e) {
+            assertRejected(s, expected);
+        }
+    }
+
+    private static void assertDecoded(String s, byte[] expected, byte[] actual) {
+        if (expected == null) fail("decodeTo accepted what decode rejects: \"" + s + "\"");
+        assertArrayEquals("decoding \"" + s + "\"", expected, actual);
+    }
+
+    private static void assertRejected(String s, byte[] expected) {
+        if (expected != null) fail("decodeTo rejected what decode accepts: \"" + s + "\"");
+    }
+
+    private byte[] randomBytes(int len) {
+        byte[] bytes = new byte[len];
+        mRandom.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,85 @@
+package com.squallium.commons.inapp.google;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import android.os.RemoteException;
+
+/**
+ * Cancellation of a consumption whose first item has already been sent to the
+ * billing service.
+ */
+public class ConsumeCancelTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Test
+    public void issuedItemsAreReportedAfterCancel() throws Exception {
+        GatedConsumeBillingService service = new GatedConsumeBillingService();
+        IabHelper helper = FakeBillingService.newHelper(service, null);
+        List<Purchase> purchases = new ArrayList<Purchase>();
+        for (int i = 0; i < 3; i++) {
+            purchases.add(new Purchase(IabHelper.ITEM_TYPE_INAPP, BenchmarkData.purchaseJson(i), ""));
+        }
+
+        final CountDownLatch finished = new CountDownLatch(1);
+        final List<List<IabResult>> reported = new ArrayList<List<IabResult>>();
+        IabOperation op = helper.consumeAsync(purchases, new IabHelper.OnConsumeMultiFinishedListener() {
+            public void onConsumeMultiFinished(List<Purchase> purchases, List<IabResult> results) {
+                synchronized (reported) {
+                    reported.add(results);
+                }
+                finished.countDown();
+            }
+        });
+        assertTrue(service.mFirstConsume.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(op.cancel());
+        service.mRelease.countDown();
+
+        assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        List<IabResult> results;
+        synchronized (reported) {
+            // a blanket cancellation would have been posted first
+            assertEquals(1, reported.size());
+            results = reported.get(0);
+        }
+        assertTrue(results.get(0).toString(), results.get(0).isSuccess());
+        assertEquals(IabHelper.IABHELPER_OPERATION_CANCELLED, results.get(1).getResponse());
+        assertEquals(IabHelper.IABHELPER_OPERATION_CANCELLED, results.get(2).getResponse());
+        // the items after the cancellation were never sent
+        assertEquals(1, service.mConsumeCalls.get());
+    }
+
+    // Holds the first consumption until released
+    static class GatedConsumeBillingService extends FakeBillingService {
+        final CountDownLatch mFirstConsume = new CountDownLatch(1);
+        final CountDownLatch mRelease = new CountDownLatch(1);
+        final AtomicInteger mConsumeCalls = new AtomicInteger();
+
+        GatedConsumeBillingService() {
+            super(0);
+        }
+
+        @Override
+        public int consumePurchase(int apiVersion, String packageName,
+                String purchaseToken) throws RemoteException {
+            mConsumeCalls.incrementAndGet();
+            mFirstConsume.countDown();
+            try {
+                mRelease.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.consumePurchase(apiVersion, packageName, purchaseToken);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.squallium.commons.inapp.google;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.os.DeadObjectException;
+import android.os.RemoteException;
+
+/**
+ * Retry of a consumption whose first attempt failed with a RemoteException after
+ * it had gone through on the server side.
+ */
+public class ConsumeJournalRetryTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("consume", ".journal");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void retryOfConsumedItemSucceeds() throws Exception {
+        IabHelper helper = FakeBillingService.newHelper(new LostReplyBillingService(), null);
+        final CountDownLatch retried = new CountDownLatch(1);
+        final IabResult[] retryResult = new IabResult[1];
+        helper.setConsumeJournalFile(mFile, new IabHelper.OnConsumeFinishedListener() {
+            public void onConsumeFinished(Purchase purchase, IabResult result) {
+                retryResult[0] = result;
+                retried.countDown();
+            }
+        });
+
+        final CountDownLatch consumed = new CountDownLatch(1);
+        final IabResult[] consumeResult = new IabResult[1];
+        helper.consumeAsync(new Purchase(IabHelper.ITEM_TYPE_INAPP, BenchmarkData.purchaseJson(0), ""),
+                new IabHelper.OnConsumeFinishedListener() {
+                    public void onConsumeFinished(Purchase purchase, IabResult result) {
+                        consumeResult[0] = result;
+                        consumed.countDown();
+                    }
+                });
+        assertTrue(consumed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(IabHelper.IABHELPER_REMOTE_EXCEPTION, consumeResult[0].getResponse());
+
+        assertTrue(retried.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(retryResult[0].toString(), retryResult[0].isSuccess());
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void retryWaitsForRunningConsume() throws Exception {
+        new ConsumeJournal(mFile).addPending(
+                new Purchase(IabHelper.ITEM_TYPE_INAPP, BenchmarkData.purchaseJson(0), ""));
+        OverlapBillingService service = new OverlapBillingService();
+        IabHelper helper = FakeBillingService.newHelper(service, null);
+
+        final CountDownLatch done = new CountDownLatch(2);
+        IabHelper.OnConsumeFinishedListener listener = new IabHelper.OnConsumeFinishedListener() {
+            public void onConsumeFinished(Purchase purchase, IabResult result) {
+                done.countDown();
+            }
+        };
+        helper.consumeAsync(new Purchase(IabHelper.ITEM_TYPE_INAPP, BenchmarkData.purchaseJson(1), ""),
+                listener);
+        // starts a retry pass over the journaled purchase while the consumption runs
+        helper.setConsumeJournalFile(mFile, listener);
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, service.mCalls.get());
+        // the retry was queued behind the consumption instead of running beside it
+        assertEquals(1, service.mMaxInFlight.get());
+    }
+
+    @Test
+    public void unreadableJournalIsRetried() throws Exception {
+        // a directory can't be read as a journal
+        assertTrue(mFile.mkdir());
+        IabHelper helper = FakeBillingService.newHelper(new FakeBillingService(0), null);
+        helper.setConsumeJournalFile(mFile, null);
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (helper.mScheduledCount.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, helper.mScheduledCount.get());
+        // the failed pass schedules the next one after a backoff delay
+        while (!helper.mConsumeRetryScheduled.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(helper.mConsumeRetryScheduled.get());
+        helper.setConsumeJournalFile(null, null);
+    }
+
+    // Consumes the purchase on the first call but loses the reply; later calls find
+    // the item isn't owned anymore
+    static class LostReplyBillingService extends FakeBillingService {
+        private int mCalls;
+
+        LostReplyBillingService() {
+            super(0);
+        }
+
+        @Override
+        public synchronized int consumePurchase(int apiVersion, String packageName,
+                String purchaseToken) throws RemoteException {
+            if (mCalls++ == 0) throw new DeadObjectException();
+            return IabHelper.BILLING_RESPONSE_RESULT_ITEM_NOT_OWNED;
+        }
+    }
+
+    // Slow consumptions that record how many run at once
+    static class OverlapBillingService extends FakeBillingService {
+        final AtomicInteger mCalls = new AtomicInteger();
+        final AtomicInteger mMaxInFlight = new AtomicInteger();
+        private final AtomicInteger mInFlight = new AtomicInteger();
+
+        OverlapBillingService() {
+            super(TimeUnit.MILLISECONDS.toMicros(200));
+        }
+
+        @Override
+        public int consumePurchase(int apiVersion, String packageName,
+                String purchaseToken) throws RemoteException {
+            mCalls.incrementAndGet();
+            int inFlight = mInFlight.incrementAndGet();
+            int max;
+            do {
+                max = mMaxInFlight.get();
+            } while (inFlight > max && !mMaxInFlight.compareAndSet(max, inFlight));
+            try {
+                return super.consumePurchase(apiVersion, packageName, purchaseToken);
+            } finally {
+                mInFlight.decrementAndGet();
+            }
+        }
+    }
+}
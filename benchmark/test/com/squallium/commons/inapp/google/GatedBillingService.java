@@ -0,0 +1,58 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Bundle;
+
+/**
+ * Fake service that holds the first getPurchases call after it has read its page,
+ * until released, so that tests can act while a query is running.
+ */
+class GatedBillingService extends FakeBillingService {
+    static final long TIMEOUT_SECONDS = 10;
+
+    final CountDownLatch mFirstPageRead = new CountDownLatch(1);
+    final CountDownLatch mRelease = new CountDownLatch(1);
+
+    // Number of getPurchases calls so far
+    final AtomicInteger mPurchasesCalls = new AtomicInteger();
+
+    GatedBillingService() {
+        super(0);
+    }
+
+    @Override
+    public Bundle getPurchases(int apiVersion, String packageName, String type,
+            String continuationToken) {
+        mPurchasesCalls.incrementAndGet();
+        Bundle page;
+        boolean first;
+        synchronized (this) {
+            page = super.getPurchases(apiVersion, packageName, type, continuationToken);
+            first = mFirstPageRead.getCount() > 0;
+            mFirstPageRead.countDown();
+        }
+        if (first) {
+            try {
+                mRelease.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return page;
+    }
+
+    @Override
+    synchronized void addPurchase(String itemType, String sku, String purchaseData,
+            String signature) {
+        super.addPurchase(itemType, sku, purchaseData, signature);
+    }
+
+    @Override
+    synchronized void setPageSize(int pageSize) {
+        super.setPageSize(pageSize);
+    }
+}
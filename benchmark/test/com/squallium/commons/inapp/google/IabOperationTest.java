@@ -0,0 +1,100 @@
+package com.squallium.commons.inapp.google;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.os.Handler;
+
+/**
+ * Cancellation of a streaming inventory query while it is running: the listener
+ * is told right away, and no more pages are requested or delivered afterwards.
+ */
+public class IabOperationTest {
+
+    private static final int PURCHASES = 3;
+
+    private BenchmarkData mData;
+    private GatedBillingService mService;
+    private ExecutorService mExecutor;
+    private IabHelper mHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        mData = new BenchmarkData(PURCHASES);
+        mService = new GatedBillingService();
+        mService.setPageSize(1);
+        for (int i = 0; i < PURCHASES; i++) {
+            mService.addPurchase(IabHelper.ITEM_TYPE_INAPP, mData.skus.get(i),
+                    mData.purchaseData.get(i), mData.signatures.get(i));
+        }
+        // a single worker, so that the test can wait for the query to stop
+        mExecutor = Executors.newSingleThreadExecutor();
+        mHelper = FakeBillingService.newHelper(mService, mData.base64PublicKey);
+        mHelper.setExecutor(mExecutor);
+        mHelper.setVerificationParallelism(1);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void cancelledStreamingQueryStopsPaging() throws Exception {
+        final List<Purchase> pages = Collections.synchronizedList(new ArrayList<Purchase>());
+        final CountDownLatch finished = new CountDownLatch(1);
+        final IabResult[] result = new IabResult[1];
+        IabOperation op = mHelper.queryInventoryAsync(false, null,
+                new IabHelper.OnPurchasesPageListener() {
+                    public void onPurchasesPage(String itemType, List<Purchase> purchases) {
+                        pages.addAll(purchases);
+                    }
+                },
+                new IabHelper.QueryInventoryFinishedListener() {
+                    public void onQueryInventoryFinished(IabResult r, Inventory inv) {
+                        result[0] = r;
+                        finished.countDown();
+                    }
+                });
+        assertTrue(mService.mFirstPageRead.await(GatedBillingService.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertTrue(op.cancel());
+        assertTrue(finished.await(GatedBillingService.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(IabHelper.IABHELPER_OPERATION_CANCELLED, result[0].getResponse());
+
+        // let the worker go on with the first page, and wait for it to stop
+        mService.mRelease.countDown();
+        mExecutor.submit(new Runnable() {
+            public void run() {
+            }
+        }).get(GatedBillingService.TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        awaitMainThread();
+
+        assertEquals(1, mService.mPurchasesCalls.get());
+        assertEquals(0, pages.size());
+        assertEquals(1, mHelper.getCancelCount(IabHelper.OPERATION_REFRESH_INVENTORY));
+    }
+
+    // Waits for the callbacks already posted to the main thread
+    private static void awaitMainThread() throws InterruptedException {
+        final CountDownLatch idle = new CountDownLatch(1);
+        new Handler().post(new Runnable() {
+            public void run() {
+                idle.countDown();
+            }
+        });
+        assertTrue(idle.await(GatedBillingService.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,87 @@
+package com.squallium.commons.inapp.google;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Coalescing of identical queryInventoryAsync calls: they may only join a query
+ * that hasn't started, so that no caller gets an inventory read before its call.
+ */
+public class InventoryCoalescingTest {
+
+    private BenchmarkData mData;
+    private GatedBillingService mService;
+    private IabHelper mHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        mData = new BenchmarkData(1);
+        mService = new GatedBillingService();
+        mHelper = FakeBillingService.newHelper(mService, mData.base64PublicKey);
+    }
+
+    @Test
+    public void purchaseCompletedDuringRunningQueryIsInNextRefresh() throws Exception {
+        InventoryListener running = new InventoryListener();
+        mHelper.queryInventoryAsync(false, running);
+        assertTrue(mService.mFirstPageRead.await(GatedBillingService.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // the purchase completes after the running query read its first page
+        mService.addPurchase(IabHelper.ITEM_TYPE_INAPP, mData.skus.get(0),
+                mData.purchaseData.get(0), mData.signatures.get(0));
+        InventoryListener refresh = new InventoryListener();
+        IabOperation refreshOp = mHelper.queryInventoryAsync(false, refresh);
+        mService.mRelease.countDown();
+
+        assertEquals(0, mHelper.getCoalescedInventoryQueryCount());
+        assertFalse(running.await().hasPurchase(mData.skus.get(0)));
+        assertTrue(refresh.await().hasPurchase(mData.skus.get(0)));
+        assertTrue(refreshOp.isDone());
+    }
+
+    @Test
+    public void queuedQueriesAreCoalesced() throws Exception {
+        InventoryListener running = new InventoryListener();
+        mHelper.queryInventoryAsync(false, running);
+        assertTrue(mService.mFirstPageRead.await(GatedBillingService.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        InventoryListener first = new InventoryListener();
+        InventoryListener second = new InventoryListener();
+        IabOperation firstOp = mHelper.queryInventoryAsync(false, first);
+        IabOperation secondOp = mHelper.queryInventoryAsync(false, second);
+        mService.mRelease.countDown();
+
+        assertSame(firstOp, secondOp);
+        assertEquals(1, mHelper.getCoalescedInventoryQueryCount());
+        running.await();
+        assertSame(first.await(), second.await());
+    }
+
+    static class InventoryListener implements IabHelper.QueryInventoryFinishedListener {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile IabResult mResult;
+        private volatile Inventory mInventory;
+
+        public void onQueryInventoryFinished(IabResult result, Inventory inv) {
+            mResult = result;
+            mInventory = inv;
+            mDone.countDown();
+        }
+
+        Inventory await() throws InterruptedException {
+            assertTrue(mDone.await(GatedBillingService.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertTrue(mResult.toString(), mResult.isSuccess());
+            assertNotNull(mInventory);
+            return mInventory;
+        }
+    }
+}
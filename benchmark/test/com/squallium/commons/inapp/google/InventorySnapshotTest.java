@@ -0,0 +1,147 @@
+package com.squallium.commons.inapp.google;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reading snapshots back, rejecting corrupted ones without failing the caller, and
+ * keeping them up to date after consumptions.
+ */
+public class InventorySnapshotTest {
+
+    private BenchmarkData mData;
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mData = new BenchmarkData(1);
+        mFile = File.createTempFile("inventory", ".snapshot");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws Exception {
+        Inventory inv = new Inventory();
+        inv.addPurchase(new Purchase(IabHelper.ITEM_TYPE_INAPP, mData.purchaseData.get(0),
+                mData.signatures.get(0)));
+        inv.addSkuDetails(new SkuDetails(IabHelper.ITEM_TYPE_INAPP, BenchmarkData.skuDetailsJson(0)));
+        InventorySnapshot.write(mFile, inv);
+
+        Inventory read = InventorySnapshot.read(mFile);
+        assertEquals(mData.purchaseData.get(0), read.getPurchase("sku.0").getOriginalJson());
+        assertEquals(mData.signatures.get(0), read.getPurchase("sku.0").getSignature());
+        assertTrue(read.hasDetails("sku.0"));
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void failedWriteLeavesNoTemporaryFile() throws Exception {
+        Inventory inv = new Inventory();
+        inv.addPurchase(new Purchase(IabHelper.ITEM_TYPE_INAPP, mData.purchaseData.get(0),
+                mData.signatures.get(0)));
+        InventorySnapshot.write(mFile, inv);
+
+        // fails half-way through the purchases
+        Inventory broken = new Inventory();
+        broken.addPurchase(new Purchase(IabHelper.ITEM_TYPE_INAPP, mData.purchaseData.get(0), null));
+        try {
+            InventorySnapshot.write(mFile, broken);
+            fail("Purchase without signature was written.");
+        }
+        catch (NullPointerException e) {
+            // expected
+        }
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+        assertTrue(InventorySnapshot.read(mFile).hasPurchase("sku.0"));
+    }
+
+    @Test
+    public void rejectsNegativeCount() throws Exception {
+        writeHeaderAndCount(-1);
+        assertCorrupted();
+    }
+
+    @Test
+    public void rejectsHugeCount() throws Exception {
+        writeHeaderAndCount(Integer.MAX_VALUE);
+        assertCorrupted();
+    }
+
+    @Test
+    public void helperIgnoresCorruptedSnapshot() throws Exception {
+        writeHeaderAndCount(-1);
+        IabHelper helper = FakeBillingService.newHelper(new FakeBillingService(0),
+                mData.base64PublicKey);
+        helper.setInventorySnapshotFile(mFile);
+        assertNull(helper.loadInventorySnapshot());
+    }
+
+    @Test
+    public void consumptionsRewriteSnapshotOnceOffTheirThread() throws Exception {
+        BenchmarkData data = new BenchmarkData(3);
+        Inventory inv = new Inventory();
+        for (int i = 0; i < 3; i++) {
+            inv.addPurchase(new Purchase(IabHelper.ITEM_TYPE_INAPP, data.purchaseData.get(i),
+                    data.signatures.get(i)));
+        }
+        InventorySnapshot.write(mFile, inv);
+        IabHelper helper = FakeBillingService.newHelper(new FakeBillingService(0),
+                data.base64PublicKey);
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        helper.setExecutor(new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        helper.setInventorySnapshotFile(mFile);
+
+        for (int i = 0; i < 3; i++) helper.consume(inv.getPurchase("sku." + i));
+        // nothing written yet, and a single rewrite pending for the whole batch
+        assertEquals(3, InventorySnapshot.read(mFile).getAllOwnedSkus().size());
+        assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        assertTrue(InventorySnapshot.read(mFile).getAllOwnedSkus().isEmpty());
+    }
+
+    private void writeHeaderAndCount(int count) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(mFile));
+        try {
+            out.writeInt(InventorySnapshot.MAGIC);
+            out.writeInt(InventorySnapshot.VERSION);
+            out.writeInt(count);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void assertCorrupted() throws Exception {
+        try {
+            InventorySnapshot.read(mFile);
+            fail("Corrupted snapshot was read.");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.squallium.commons.inapp.google;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Copy-on-write of inventories: the purchase state index stays current across the
+ * copies made by every change, and the inventories handed out don't change.
+ */
+public class InventoryTest {
+
+    @Test
+    public void stateIndexFollowsChanges() throws Exception {
+        Inventory inv = new Inventory();
+        inv.addPurchases(Arrays.asList(purchase(0, 0), purchase(1, 1)));
+        assertSkus(inv.getPurchasesByState(0), "sku.0");
+        Inventory.Contents indexed = inv.mContents.get();
+        assertNotNull(indexed.getSkusByState());
+
+        inv.addPurchase(purchase(2, 0));
+        inv.erasePurchase("sku.0");
+        inv.addPurchase(purchase(1, 2));
+
+        // carried over by the copies, not rebuilt
+        assertNotNull(inv.mContents.get().mSkusByState);
+        assertSkus(inv.getPurchasesByState(0), "sku.2");
+        assertSkus(inv.getPurchasesByState(1));
+        assertSkus(inv.getPurchasesByState(2), "sku.1");
+        // the first indexed version is left as it was
+        assertEquals(Arrays.asList("sku.0"),
+                Arrays.asList(indexed.getSkusByState().get(0).toArray()));
+    }
+
+    @Test
+    public void snapshotSharesIndexedContents() throws Exception {
+        Inventory inv = new Inventory();
+        inv.addPurchase(purchase(0, 0));
+        inv.getPurchasesByState(0);
+        assertSame(inv.mContents.get().getSkusByState(),
+                inv.snapshot().mContents.get().getSkusByState());
+    }
+
+    @Test
+    public void queriedInventoryUnchangedByConsume() throws Exception {
+        BenchmarkData data = new BenchmarkData(1);
+        FakeBillingService service = new FakeBillingService(0);
+        service.addPurchase(IabHelper.ITEM_TYPE_INAPP, data.skus.get(0),
+                data.purchaseData.get(0), data.signatures.get(0));
+        IabHelper helper = FakeBillingService.newHelper(service, data.base64PublicKey);
+
+        Inventory inv = helper.queryInventory(false, null);
+        helper.consume(inv.getPurchase("sku.0"));
+        assertTrue(inv.hasPurchase("sku.0"));
+        assertFalse(helper.getLatestInventory().hasPurchase("sku.0"));
+    }
+
+    private static Purchase purchase(int i, int state) throws Exception {
+        String json = BenchmarkData.purchaseJson(i).replace("\"purchaseState\":0",
+                "\"purchaseState\":" + state);
+        return new Purchase(IabHelper.ITEM_TYPE_INAPP, json, "");
+    }
+
+    private static void assertSkus(List<Purchase> purchases, String... skus) {
+        assertEquals(skus.length, purchases.size());
+        for (int i = 0; i < skus.length; i++) assertEquals(skus[i], purchases.get(i).getSku());
+    }
+}
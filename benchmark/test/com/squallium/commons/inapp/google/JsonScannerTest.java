@@ -0,0 +1,137 @@
+package com.squallium.commons.inapp.google;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Iterator;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * The field getters of JsonScanner against the opt methods of JSONObject they replace.
+ */
+public class JsonScannerTest {
+
+    // Fallback that no field of the tests holds
+    private static final long FALLBACK = -7;
+
+    @Test
+    public void purchasesMatchJsonObject() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertSameFields(BenchmarkData.purchaseJson(i), "token", "purchaseToken");
+        }
+    }
+
+    @Test
+    public void skuDetailsMatchJsonObject() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertSameFields(BenchmarkData.skuDetailsJson(i), "price_amount_micros", "missing");
+        }
+    }
+
+    @Test
+    public void escapesMatchJsonObject() throws Exception {
+        assertSameFields("{\"productId\":\"a\\\"b\\\\c\\/d\\n\\t\\u00e9\\u20ac\","
+                + "\"\\u0074itle\":\"escaped name\","
+                + "\"description\":\"\\\\\","
+                + "\"price\":\"{not: [an object]}\","
+                + "\"unicode\":\"\u00e9\u20ac\ud83d\ude00\"}", "title", "description");
+    }
+
+    @Test
+    public void whitespaceMatchesJsonObject() throws Exception {
+        assertSameFields(" \n{ \"orderId\" : \"1\" ,\n\t\"purchaseTime\"\r\n:\n1400000000000 ,"
+                + "\"purchaseState\" : 2 }  ", "purchaseTime", "orderId");
+    }
+
+    @Test
+    public void numbersMatchJsonObject() throws Exception {
+        assertSameFields("{\"long\":1400000000000,\"negative\":-42,\"zero\":0,"
+                + "\"fraction\":12.75,\"negativeFraction\":-0.5,"
+                + "\"quotedLong\":\"1400000000000\",\"quotedFraction\":\"3.5\","
+                + "\"notANumber\":\"abc\",\"empty\":\"\",\"true\":true,\"null\":null,"
+                + "\"intOverflow\":4294967297,\"quotedIntOverflow\":\"4294967297\","
+                + "\"longOverflow\":9223372036854775808,\"exponent\":1.5e3}", "long", "notANumber");
+    }
+
+    @Test
+    public void nestedValuesAreSkipped() throws Exception {
+        String json = "{\"object\":{\"productId\":\"inner\",\"a\":[1,{\"b\":\"}\"}]},"
+                + "\"array\":[\"]\",[],{}],\"productId\":\"outer\",\"purchaseState\":1}";
+        assertEquals("outer", JsonScanner.getString(json, "productId", ""));
+        assertSameFields(json, "productId", "purchaseState");
+    }
+
+    @Test
+    public void lastDuplicateWinsLikeJsonObject() throws Exception {
+        assertSameFields("{\"productId\":\"first\",\"purchaseState\":0,"
+                + "\"productId\":\"last\",\"purchaseState\":2}", "productId", "purchaseState");
+        // a field that appears after its alternate, before it and again after it
+        String json = "{\"purchaseToken\":\"alternate\",\"token\":\"first\","
+                + "\"purchaseToken\":\"alternate2\",\"token\":\"last\"}";
+        assertEquals("last", JsonScanner.getString(json, "token", "purchaseToken", ""));
+        json = "{\"purchaseToken\":\"first\",\"purchaseToken\":\"last\"}";
+        assertEquals("last", JsonScanner.getString(json, "token", "purchaseToken", ""));
+    }
+
+    @Test
+    public void checkObjectRejectsWhatJsonObjectRejects() throws Exception {
+        String[] malformed = {
+            "", "   ", "[]", "\"string\"", "{", "{\"a\"", "{\"a\":", "{\"a\":1",
+            "{\"a\" 1}", "{\"a\":1 \"b\":2}", "{\"a\":\"unterminated}", "{\"a\":}",
+            "{\"a\":[1,2}", "{\"a\":{\"b\":1}"
+        };
+        for (String json : malformed) {
+            try {
+                new JSONObject(json);
+                fail("JSONObject accepted " + json);
+            }
+            catch (JSONException e) {
+                // expected
+            }
+            try {
+                JsonScanner.checkObject(json);
+                fail("checkObject accepted " + json);
+            }
+            catch (JSONException e) {
+                // expected
+            }
+        }
+    }
+
+    // Checks that every top-level field of json, and the given extra names, are read
+    // the same by the scanner and by JSONObject
+    private static void assertSameFields(String json, String name, String alternateName)
+            throws Exception {
+        JsonScanner.checkObject(json);
+        JSONObject o = new JSONObject(json);
+        for (Iterator<?> it = o.keys(); it.hasNext(); ) {
+            assertSameField(json, o, (String) it.next());
+        }
+        assertSameField(json, o, name);
+        assertSameField(json, o, alternateName);
+        assertSameField(json, o, "missing");
+        assertEquals(json, o.optString(name, o.optString(alternateName, "fallback")),
+                JsonScanner.getString(json, name, alternateName, "fallback"));
+    }
+
+    private static void assertSameField(String json, JSONObject o, String name) {
+        Object value = o.opt(name);
+        if (value instanceof Double) {
+            // JSONObject reformats the numbers it doesn't hold as longs
+            assertEquals(name + " of " + json, value,
+                    Double.valueOf(JsonScanner.getString(json, name, "fallback")));
+        }
+        else if (!(value instanceof JSONObject) && !(value instanceof org.json.JSONArray)) {
+            // containers are reformatted too; fields don't hold any
+            assertEquals(name + " of " + json, o.optString(name, "fallback"),
+                    JsonScanner.getString(json, name, "fallback"));
+        }
+        assertEquals(name + " of " + json, o.optLong(name, FALLBACK),
+                JsonScanner.getLong(json, name, FALLBACK));
+        assertEquals(name + " of " + json, o.optInt(name, (int) FALLBACK),
+                JsonScanner.getInt(json, name, (int) FALLBACK));
+    }
+}
@@ -0,0 +1,39 @@
+package com.squallium.commons.inapp.google;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Which extra SKUs are queried for the details of products and subscriptions.
+ */
+public class SkuDetailsQueryTest {
+
+    @Test
+    public void subscriptionsListedWithProductsGetDetails() throws Exception {
+        FakeBillingService service = new FakeBillingService(0);
+        List<String> skus = new ArrayList<String>();
+        skus.addAll(service.addCatalog(IabHelper.ITEM_TYPE_INAPP, "item", 30));
+        skus.addAll(service.addCatalog(IabHelper.ITEM_TYPE_SUBS, "subs", 30));
+        IabHelper helper = FakeBillingService.newHelper(service, null);
+
+        Inventory inv = helper.queryInventory(true, skus);
+        assertTrue(inv.hasDetails("item.29"));
+        assertTrue(inv.hasDetails("subs.29"));
+    }
+
+    @Test
+    public void subscriptionsListedApartGetDetails() throws Exception {
+        FakeBillingService service = new FakeBillingService(0);
+        List<String> itemSkus = service.addCatalog(IabHelper.ITEM_TYPE_INAPP, "item", 30);
+        List<String> subsSkus = service.addCatalog(IabHelper.ITEM_TYPE_SUBS, "subs", 30);
+        IabHelper helper = FakeBillingService.newHelper(service, null);
+
+        Inventory inv = helper.queryInventory(true, itemSkus, subsSkus);
+        assertTrue(inv.hasDetails("item.29"));
+        assertTrue(inv.hasDetails("subs.29"));
+    }
+}
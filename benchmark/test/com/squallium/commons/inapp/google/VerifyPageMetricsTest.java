@@ -0,0 +1,54 @@
+package com.squallium.commons.inapp.google;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Response codes recorded for the signature verification of a page of owned purchases.
+ */
+public class VerifyPageMetricsTest {
+
+    @Test
+    public void pageOfValidPurchasesIsOk() throws Exception {
+        BenchmarkData data = new BenchmarkData(2);
+        FakeBillingService service = new FakeBillingService(0);
+        for (int i = 0; i < 2; i++) {
+            service.addPurchase(IabHelper.ITEM_TYPE_INAPP, data.skus.get(i),
+                    data.purchaseData.get(i), data.signatures.get(i));
+        }
+        IabHelper helper = FakeBillingService.newHelper(service, data.base64PublicKey);
+        IabMetrics metrics = new IabMetrics();
+        helper.setMetricsSink(metrics);
+
+        helper.queryInventory(false, null);
+        // one page of products and an empty one of subscriptions
+        assertEquals(2, metrics.getCount(IabMetrics.VERIFY_PAGE));
+        assertEquals(0, metrics.getErrorCount(IabMetrics.VERIFY_PAGE));
+    }
+
+    @Test
+    public void pageWithForgedPurchaseFails() throws Exception {
+        BenchmarkData data = new BenchmarkData(2);
+        FakeBillingService service = new FakeBillingService(0);
+        service.addPurchase(IabHelper.ITEM_TYPE_INAPP, data.skus.get(0),
+                data.purchaseData.get(0), data.signatures.get(0));
+        // signed for another purchase
+        service.addPurchase(IabHelper.ITEM_TYPE_INAPP, data.skus.get(1),
+                data.purchaseData.get(1), data.signatures.get(0));
+        IabHelper helper = FakeBillingService.newHelper(service, data.base64PublicKey);
+        IabMetrics metrics = new IabMetrics();
+        helper.setMetricsSink(metrics);
+
+        try {
+            helper.queryInventory(false, null);
+            fail("forged purchase accepted");
+        }
+        catch (IabException e) {
+            assertEquals(IabHelper.IABHELPER_VERIFICATION_FAILED, e.getResult().getResponse());
+        }
+        assertEquals(1, metrics.getResponseCount(IabMetrics.VERIFY_PAGE,
+                IabHelper.IABHELPER_VERIFICATION_FAILED));
+    }
+}
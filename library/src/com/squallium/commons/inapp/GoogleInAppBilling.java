@@ -1,5 +1,7 @@
 package com.squallium.commons.inapp;
 
+import java.io.File;
+
 import android.content.Intent;
 import android.os.Bundle;
 import android.util.Log;
@@ -8,6 +10,7 @@ import com.squallium.commons.inapp.google.IabHelper;
 import com.squallium.commons.inapp.google.IabResult;
 import com.squallium.commons.inapp.google.Inventory;
 import com.squallium.commons.inapp.google.Purchase;
+import com.squallium.commons.inapp.google.SharedIabHelper;
 
 public abstract class GoogleInAppBilling extends InAppBilling {
 
@@ -17,13 +20,19 @@ public abstract class GoogleInAppBilling extends InAppBilling {
 
 	private static final String TAG = GoogleInAppBilling.class.getSimpleName();
 
+	// Name of the file where the last inventory is saved
+	private static final String INVENTORY_SNAPSHOT_FILE = "iab_inventory.snapshot";
+
 	// ===========================================================
 	// Fields
 	// ===========================================================
 
-	// The helper object
+	// The helper object, shared by all the activities of the process
 	private IabHelper mHelper;
 
+	// The setup listener, forgotten by the shared helper on release
+	private IabHelper.OnIabSetupFinishedListener mSetupFinishedListener;
+
 	// The query inventory listener
 	private IabHelper.QueryInventoryFinishedListener mGotInventoryListener;
 
@@ -31,6 +40,9 @@ public abstract class GoogleInAppBilling extends InAppBilling {
 
 	private IInAppBilling.OnConsumeItemListener onConsumeItemListener;
 
+	// Has the live inventory been received? (if so, the snapshot is ignored)
+	private boolean mLiveInventoryReceived = false;
+
 	// ===========================================================
 	// Constructors
 	// ===========================================================
@@ -57,42 +69,60 @@ public abstract class GoogleInAppBilling extends InAppBilling {
 					"Please change the sample's package name! See README.");
 		}
 
-		// Create the helper, passing it our context and the public key to
-		// verify signatures with
-		Log.d(TAG, "Creating IAB helper.");
-		mHelper = new IabHelper(this, getBase64EncodedPublicKey());
-
-		// enable debug logging (for a production application, you should set
-		// this to false).
-		mHelper.enableDebugLogging(true);
-
 		// Instanciamos el listener para recuperar el inventario
 		mGotInventoryListener = new GotInventoryListener();
 
-		// Start setup. This is asynchronous and the specified listener
-		// will be called once setup completes.
-		Log.d(TAG, "Starting setup.");
-		mHelper.startSetup(new IabHelper.OnIabSetupFinishedListener() {
+		// Acquire the helper shared by the activities of the process, passing
+		// it the public key to verify signatures with. The first activity
+		// creates it and starts the setup, which is asynchronous: the specified
+		// listener will be called once setup completes (right away if it
+		// already has).
+		Log.d(TAG, "Acquiring IAB helper.");
+		mSetupFinishedListener = new IabHelper.OnIabSetupFinishedListener() {
 			public void onIabSetupFinished(IabResult result) {
 				Log.d(TAG, "Setup finished.");
 
+				// Have we been disposed of in the meantime? If so, quit (the
+				// activity can't show anything anymore).
+				if (mHelper == null)
+					return;
+
 				if (!result.isSuccess()) {
 					// Oh noes, there was a problem.
 					complain("Problem setting up in-app billing: " + result);
 					return;
 				}
 
-				// Have we been disposed of in the meantime? If so, quit.
-				if (mHelper == null)
-					return;
-
 				// IAB is fully set up. Now, let's get an inventory of stuff we
 				// own.
 				Log.d(TAG, "Setup successful. Querying inventory.");
 				mHelper.queryInventoryAsync(getQuerySkuDetails(),
 						mGotInventoryListener);
 			}
-		});
+		};
+		mHelper = SharedIabHelper.acquire(this, getBase64EncodedPublicKey(),
+				mSetupFinishedListener);
+
+		// enable debug logging (for a production application, you should set
+		// this to false).
+		mHelper.enableDebugLogging(true);
+
+		// If enabled, deliver the inventory already queried by another
+		// activity, or else the one saved by the previous session, while the
+		// live one is being queried. Both are stale.
+		if (getUseInventorySnapshot()) {
+			mHelper.setInventorySnapshotFile(new File(getFilesDir(),
+					INVENTORY_SNAPSHOT_FILE));
+			Inventory cached = mHelper.getCachedInventory();
+			if (cached != null) {
+				Log.d(TAG, "Delivering the latest inventory.");
+				new SnapshotInventoryListener().onQueryInventoryFinished(
+						new IabResult(IabHelper.BILLING_RESPONSE_RESULT_OK,
+								"Latest inventory"), cached);
+			} else {
+				mHelper.loadInventorySnapshotAsync(new SnapshotInventoryListener());
+			}
+		}
 	}
 
 	@Override
@@ -127,10 +157,10 @@ public abstract class GoogleInAppBilling extends InAppBilling {
 	public void onDestroy() {
 		super.onDestroy();
 
-		// very important:
-		Log.d(TAG, "Destroying helper.");
+		// very important: the helper is disposed of once no activity uses it
+		Log.d(TAG, "Releasing helper.");
 		if (mHelper != null) {
-			mHelper.dispose();
+			SharedIabHelper.release(mHelper, mSetupFinishedListener);
 			mHelper = null;
 		}
 	}
@@ -145,6 +175,22 @@ public abstract class GoogleInAppBilling extends InAppBilling {
 		return true;
 	}
 
+	/**
+	 * Allow to deliver the inventory already queried by another activity, or
+	 * else the one saved by the previous session, as soon as the activity is
+	 * created, before the in-app billing setup and the live inventory query
+	 * have finished. In that case,
+	 * {@link #checkInventoryItems(Inventory)} is first called with a stale
+	 * inventory ({@link Inventory#isStale()}), which should only be used to
+	 * unlock content (don't consume its items: billing may not be set up yet),
+	 * and then again with the live one.
+	 * 
+	 * @return
+	 */
+	protected boolean getUseInventorySnapshot() {
+		return false;
+	}
+
 	protected abstract String getBase64EncodedPublicKey();
 
 	protected abstract void checkInventoryItems(Inventory inventory);
@@ -169,19 +215,21 @@ public abstract class GoogleInAppBilling extends InAppBilling {
 		// Registramos el listener de respuesta
 		setOnPurchaseFinishedListener(pPurchaseFinishedListener);
 
-		// Lanzamos el proceso de compra
+		// Lanzamos el proceso de compra (the buy intent is requested off the
+		// UI thread)
 		switch (inAppType) {
 		case consumable:
-			mHelper.launchPurchaseFlow(this, sku, requestCode,
+			mHelper.launchPurchaseFlowAsync(this, sku, requestCode,
 					mPurchaseFinishedListener, payload);
 			break;
 		case non_consumable:
-			mHelper.launchPurchaseFlow(this, sku, requestCode,
+			mHelper.launchPurchaseFlowAsync(this, sku, requestCode,
 					mPurchaseFinishedListener, payload);
 			break;
 		case subscription:
-			mHelper.launchPurchaseFlow(this, sku, IabHelper.ITEM_TYPE_SUBS,
-					requestCode, mPurchaseFinishedListener, payload);
+			mHelper.launchPurchaseFlowAsync(this, sku,
+					IabHelper.ITEM_TYPE_SUBS, requestCode,
+					mPurchaseFinishedListener, payload);
 			break;
 		}
 	}
@@ -295,6 +343,7 @@ public abstract class GoogleInAppBilling extends InAppBilling {
 			}
 
 			Log.d(TAG, "Query inventory was successful.");
+			mLiveInventoryReceived = true;
 
 			/*
 			 * Check for items we own. Notice that for each purchase, we check
@@ -305,6 +354,27 @@ public abstract class GoogleInAppBilling extends InAppBilling {
 		}
 	};
 
+	// Listener that's called with a stale inventory: the one saved by the
+	// previous session once loaded, or the latest one of the shared helper
+	private class SnapshotInventoryListener implements
+			IabHelper.QueryInventoryFinishedListener {
+		public void onQueryInventoryFinished(IabResult result,
+				Inventory inventory) {
+			// Have we been disposed of, or got the live inventory, in the
+			// meantime? If so, quit.
+			if (mHelper == null || mLiveInventoryReceived)
+				return;
+
+			if (result.isFailure()) {
+				Log.d(TAG, "No inventory snapshot: " + result);
+				return;
+			}
+
+			Log.d(TAG, "Delivering stale inventory.");
+			checkInventoryItems(inventory);
+		}
+	};
+
 	// Callback for when a purchase is finished
 	IabHelper.OnIabPurchaseFinishedListener mPurchaseFinishedListener = new IabHelper.OnIabPurchaseFinishedListener() {
 		public void onIabPurchaseFinished(IabResult result, Purchase purchase) {
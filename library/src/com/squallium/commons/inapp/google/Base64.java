@@ -14,6 +14,9 @@
 
 package com.squallium.commons.inapp.google;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 // This code was converted from code at http://iharder.sourceforge.net/base64/
 // Lots of extraneous features were removed.
 /* The original code said:
@@ -345,6 +348,94 @@ public class Base64 {
         return outBuff;
     }
 
+    /**
+     * Returns the length of the Base64 notation (with padding and without
+     * new lines) of len bytes.
+     *
+     * @param len length of data to convert
+     * @return the number of Base64 bytes
+     */
+    public static int getEncodedLength(int len) {
+        return (len + 2) / 3 * 4;
+    }
+
+    /**
+     * Encodes a byte array into Base64 notation (with padding and without
+     * new lines), writing it to a destination array instead of allocating one.
+     * The destination must have room for {@link #getEncodedLength} bytes
+     * after destOffset.
+     *
+     * @param source the data to convert
+     * @param off offset in array where conversion should begin
+     * @param len length of data to convert
+     * @param destination the array to hold the conversion
+     * @param destOffset the index where output will be put
+     * @return the number of Base64 bytes written
+     */
+    public static int encodeTo(byte[] source, int off, int len, byte[] destination,
+            int destOffset) {
+        int e = destOffset;
+        int end = off + len;
+        int d = off;
+        for (; d < end - 2; d += 3, e += 4) {
+            int inBuff =
+                    ((source[d] << 24) >>> 8)
+                    | ((source[d + 1] << 24) >>> 16)
+                    | ((source[d + 2] << 24) >>> 24);
+            destination[e] = ALPHABET[(inBuff >>> 18)];
+            destination[e + 1] = ALPHABET[(inBuff >>> 12) & 0x3f];
+            destination[e + 2] = ALPHABET[(inBuff >>> 6) & 0x3f];
+            destination[e + 3] = ALPHABET[(inBuff) & 0x3f];
+        }
+        if (d < end) {
+            encode3to4(source, d, end - d, destination, e, ALPHABET);
+            e += 4;
+        }
+        return e - destOffset;
+    }
+
+    /**
+     * Encodes a byte array into Base64 notation (with padding and without
+     * new lines), writing it to the buffer at its current position, which is
+     * advanced past the written bytes.
+     *
+     * @param source the data to convert
+     * @param off offset in array where conversion should begin
+     * @param len length of data to convert
+     * @param destination the buffer to hold the conversion
+     * @return the number of Base64 bytes written
+     * @throws java.nio.BufferOverflowException if the buffer doesn't have
+     *     {@link #getEncodedLength} bytes remaining
+     */
+    public static int encodeTo(byte[] source, int off, int len, ByteBuffer destination) {
+        int outLen = getEncodedLength(len);
+        if (destination.remaining() < outLen) {
+            throw new BufferOverflowException();
+        }
+
+        int position = destination.position();
+        if (destination.hasArray()) {
+            encodeTo(source, off, len, destination.array(),
+                    destination.arrayOffset() + position);
+        } else {
+            int e = position;
+            for (int d = 0; d < len; d += 3, e += 4) {
+                int numSigBytes = Math.min(3, len - d);
+                int inBuff =
+                        ((source[off + d] << 24) >>> 8)
+                        | (numSigBytes > 1 ? ((source[off + d + 1] << 24) >>> 16) : 0)
+                        | (numSigBytes > 2 ? ((source[off + d + 2] << 24) >>> 24) : 0);
+                destination.put(e, ALPHABET[(inBuff >>> 18)]);
+                destination.put(e + 1, ALPHABET[(inBuff >>> 12) & 0x3f]);
+                destination.put(e + 2,
+                        numSigBytes > 1 ? ALPHABET[(inBuff >>> 6) & 0x3f] : EQUALS_SIGN);
+                destination.put(e + 3, numSigBytes > 2 ? ALPHABET[(inBuff) & 0x3f] : EQUALS_SIGN);
+            }
+        }
+        destination.position(position + outLen);
+        return outLen;
+    }
+
 
     /* ********  D E C O D I N G   M E T H O D S  ******** */
 
@@ -408,6 +499,151 @@ public class Base64 {
     } // end decodeToBytes
 
 
+    /**
+     * Returns an upper limit of the number of bytes decoded from len
+     * characters of Base64 notation.
+     *
+     * @param len the length of characters to decode
+     * @return the maximum number of decoded bytes
+     */
+    public static int getMaxDecodedLength(int len) {
+        return 2 + len * 3 / 4;
+    }
+
+    /**
+     * Decodes data from Base64 notation, reading the characters directly
+     * and writing the decoded bytes to a destination array instead of
+     * allocating one. The destination must have room for
+     * {@link #getMaxDecodedLength} bytes after destOffset. Unlike
+     * {@link #decode(String)}, characters outside of ASCII are rejected
+     * rather than cropped to seven bits.
+     *
+     * @param source the Base64 encoded data
+     * @param off the offset of where to begin decoding
+     * @param len the length of characters to decode
+     * @param destination the array to hold the decoded data
+     * @param destOffset the index where output will be put
+     * @return the number of decoded bytes
+     */
+    public static int decodeTo(CharSequence source, int off, int len, byte[] destination,
+            int destOffset) throws Base64DecoderException {
+        return decode(source, off, len, DECODABET, destination, destOffset, null);
+    }
+
+    /**
+     * Decodes data from Base64 notation, reading the characters directly
+     * and writing the decoded bytes to the buffer at its current position,
+     * which is advanced past the written bytes.
+     *
+     * @param source the Base64 encoded data
+     * @param off the offset of where to begin decoding
+     * @param len the length of characters to decode
+     * @param destination the buffer to hold the decoded data
+     * @return the number of decoded bytes
+     * @throws java.nio.BufferOverflowException if the buffer doesn't have
+     *     {@link #getMaxDecodedLength} bytes remaining
+     */
+    public static int decodeTo(CharSequence source, int off, int len, ByteBuffer destination)
+            throws Base64DecoderException {
+        if (destination.remaining() < getMaxDecodedLength(len)) {
+            throw new BufferOverflowException();
+        }
+
+        int position = destination.position();
+        int outLen;
+        if (destination.hasArray()) {
+            outLen = decode(source, off, len, DECODABET, destination.array(),
+                    destination.arrayOffset() + position, null);
+        } else {
+            outLen = decode(source, off, len, DECODABET, null, position, destination);
+        }
+        destination.position(position + outLen);
+        return outLen;
+    }
+
+    /**
+     * Decodes Base64 characters using the supplied decodabet. Decoded bytes
+     * are written to destination or, if it is null, with absolute puts to
+     * destinationBuffer. Works like {@link #decode(byte[], int, int, byte[])},
+     * without intermediate buffers.
+     *
+     * @return the number of decoded bytes
+     */
+    private static int decode(CharSequence source, int off, int len, byte[] decodabet,
+            byte[] destination, int destOffset, ByteBuffer destinationBuffer)
+            throws Base64DecoderException {
+        int outBuffPosn = destOffset;
+
+        // Up to four 6-bit values, and how many of them
+        int b4 = 0;
+        int b4Posn = 0;
+        for (int i = 0; i < len; i++) {
+            char c = source.charAt(i + off);
+            byte sbiDecode = (c < decodabet.length) ? decodabet[c] : -9;
+
+            if (sbiDecode >= WHITE_SPACE_ENC) { // White space Equals sign or better
+                if (sbiDecode >= EQUALS_SIGN_ENC) {
+                    // An equals sign (for padding) must not occur at position 0 or 1
+                    // and must be the last byte[s] in the encoded value
+                    if (c == EQUALS_SIGN) {
+                        int bytesLeft = len - i;
+                        char lastChar = source.charAt(len - 1 + off);
+                        if (b4Posn == 0 || b4Posn == 1) {
+                            throw new Base64DecoderException(
+                                    "invalid padding byte '=' at byte offset " + i);
+                        } else if (b4Posn == 3 && bytesLeft > 2) {
+                            throw new Base64DecoderException(
+                                    "padding byte '=' falsely signals end of encoded value "
+                                            + "at offset " + i);
+                        } else if (lastChar != EQUALS_SIGN && lastChar != NEW_LINE) {
+                            throw new Base64DecoderException(
+                                    "encoded value has invalid trailing byte");
+                        }
+                        break;
+                    }
+
+                    b4 = (b4 << 6) | sbiDecode;
+                    if (++b4Posn == 4) {
+                        put(destination, destinationBuffer, outBuffPosn++, b4 >> 16);
+                        put(destination, destinationBuffer, outBuffPosn++, b4 >> 8);
+                        put(destination, destinationBuffer, outBuffPosn++, b4);
+                        b4 = 0;
+                        b4Posn = 0;
+                    }
+                }
+            } else {
+                throw new Base64DecoderException("Bad Base64 input character at " + i
+                        + ": " + (int) c + "(decimal)");
+            }
+        }
+
+        // Unpadded (web safe) or padded ending: two or three characters
+        // left, which make one or two bytes
+        if (b4Posn != 0) {
+            if (b4Posn == 1) {
+                throw new Base64DecoderException("single trailing character at offset "
+                        + (len - 1));
+            }
+            b4 <<= 6 * (4 - b4Posn);
+            put(destination, destinationBuffer, outBuffPosn++, b4 >> 16);
+            if (b4Posn == 3) {
+                put(destination, destinationBuffer, outBuffPosn++, b4 >> 8);
+            }
+        }
+
+        return outBuffPosn - destOffset;
+    }
+
+    // Writes a decoded byte to the array, or to the buffer if there is no array
+    private static void put(byte[] destination, ByteBuffer destinationBuffer, int index,
+            int b) {
+        if (destination != null) {
+            destination[index] = (byte) b;
+        } else {
+            destinationBuffer.put(index, (byte) b);
+        }
+    }
+
     /**
      * Decodes data from Base64 notation.
      *
@@ -0,0 +1,232 @@
+package com.squallium.commons.inapp.google;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+
+/**
+ * Append-only on-disk journal of the consumptions that failed for a transient
+ * reason (see {@link IabHelper#setConsumeJournalFile}), so that they can be
+ * retried in the background, even by a later session, until they settle.
+ *
+ * The file starts with a magic number and a format version, followed by
+ * records: a pending record holds a purchase (item type, original JSON and
+ * signature), a settled record the token of a purchase that no longer needs to
+ * be consumed. Records are only ever appended, and each one is synced to disk
+ * before the call returns; a record cut short by a crash is ignored when the
+ * journal is read back, and the file is then compacted to the pending records
+ * only. The file is deleted once no purchase is pending.
+ */
+class ConsumeJournal {
+    static final int MAGIC = 0x4941424a; // "IABJ"
+    static final int VERSION = 1;
+
+    static final int RECORD_PENDING = 1;
+    static final int RECORD_SETTLED = 2;
+
+    private static final String CHARSET = "UTF-8";
+
+    // Upper bound for a single string, to detect corrupted files
+    private static final int MAX_STRING_BYTES = 1024 * 1024;
+
+    private final File mFile;
+
+    // Pending purchases by token, in the order they were journaled (null until loaded)
+    private Map<String, Purchase> mPending;
+
+    ConsumeJournal(File file) {
+        mFile = file;
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    /** Returns the purchases that are pending, reading the file on first use. */
+    synchronized List<Purchase> getPending() throws IOException {
+        load();
+        return new ArrayList<Purchase>(mPending.values());
+    }
+
+    /** Returns whether the purchase is pending, reading the file on first use. */
+    synchronized boolean isPending(Purchase purchase) throws IOException {
+        load();
+        return mPending.containsKey(purchase.getToken());
+    }
+
+    /**
+     * Records a purchase whose consumption has to be retried. Does nothing if it
+     * is already pending.
+     */
+    synchronized void addPending(Purchase purchase) throws IOException {
+        load();
+        String token = purchase.getToken();
+        if (mPending.containsKey(token)) return;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writePending(new DataOutputStream(bytes), purchase);
+        appendTo(mFile, bytes.toByteArray());
+        mPending.put(token, purchase);
+    }
+
+    /**
+     * Records that a purchase doesn't need to be consumed anymore (it was consumed,
+     * or can't be). Does nothing if it isn't pending.
+     */
+    synchronized void settle(Purchase purchase) throws IOException {
+        load();
+        String token = purchase.getToken();
+        if (!mPending.containsKey(token)) return;
+
+        mPending.remove(token);
+        if (mPending.isEmpty()) {
+            // nothing left to replay: start over with an empty journal
+            if (mFile.exists() && !mFile.delete()) {
+                throw new IOException("Can't delete consume journal " + mFile);
+            }
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(RECORD_SETTLED);
+        writeString(record, token);
+        appendTo(mFile, bytes.toByteArray());
+    }
+
+    // Rewrites the file with only the pending records, replacing it atomically
+    private void compact() throws IOException {
+        if (mPending.isEmpty()) {
+            mFile.delete();
+            return;
+        }
+        File tmp = new File(mFile.getPath() + ".tmp");
+        tmp.delete();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(bytes);
+        for (Purchase purchase : mPending.values()) writePending(records, purchase);
+        appendTo(tmp, bytes.toByteArray());
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            throw new IOException("Can't compact consume journal " + mFile);
+        }
+    }
+
+    // Appends a whole record (with the header, if the file is new) and syncs it to disk
+    private static void appendTo(File file, byte[] record) throws IOException {
+        boolean isNew = !file.exists() || file.length() == 0;
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            if (isNew) {
+                DataOutputStream header = new DataOutputStream(out);
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+            }
+            out.write(record);
+            out.getFD().sync();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    // Replays the records of the file, if not done yet
+    private void load() throws IOException {
+        if (mPending != null) return;
+        Map<String, Purchase> pending = new LinkedHashMap<String, Purchase>();
+        if (!mFile.exists()) {
+            mPending = pending;
+            return;
+        }
+        boolean compact = true;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        try {
+            if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                compact = readRecords(in, pending);
+            }
+        }
+        catch (EOFException e) {
+            // empty file or truncated header: nothing pending
+        }
+        finally {
+            in.close();
+        }
+        mPending = pending;
+        // drop the settled records, and a truncated one, which would corrupt the next append
+        if (compact) compact();
+    }
+
+    // Replays the records into pending. Returns whether the file has records that
+    // compacting it would drop
+    private static boolean readRecords(DataInputStream in, Map<String, Purchase> pending)
+            throws IOException {
+        boolean settled = false;
+        while (true) {
+            int kind = in.read();
+            if (kind < 0) return settled;
+            try {
+                if (kind == RECORD_PENDING) {
+                    String itemType = readString(in);
+                    String json = readString(in);
+                    String signature = readString(in);
+                    Purchase purchase = new Purchase(itemType, json, signature);
+                    pending.put(purchase.getToken(), purchase);
+                }
+                else if (kind == RECORD_SETTLED) {
+                    pending.remove(readString(in));
+                    settled = true;
+                }
+                else {
+                    // corrupted: keep what could be read
+                    return true;
+                }
+            }
+            catch (EOFException e) {
+                // the last record was cut short by a crash while it was written
+                return true;
+            }
+            catch (IOException e) {
+                // corrupted string
+                return true;
+            }
+            catch (JSONException e) {
+                // a purchase that can't be parsed can't be consumed either
+                settled = true;
+            }
+        }
+    }
+
+    private static void writePending(DataOutputStream out, Purchase purchase) throws IOException {
+        out.writeByte(RECORD_PENDING);
+        writeString(out, purchase.getItemType());
+        writeString(out, purchase.getOriginalJson());
+        writeString(out, purchase.getSignature());
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Corrupted consume journal.");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, CHARSET);
+    }
+}
@@ -0,0 +1,62 @@
+package com.squallium.commons.inapp.google;
+
+/**
+ * Wall-clock breakdown of a multi-item consumption (see
+ * {@link IabHelper#consumeAsync(java.util.List, IabHelper.OnConsumeMultiFinishedListener)}).
+ *
+ * Each item is consumed with its own consumePurchase request. When several
+ * requests are in flight at the same time (see
+ * {@link IabHelper#setConsumeParallelism}), the total time is close to the
+ * slowest items instead of the sum of all of them.
+ */
+public class ConsumeTimings {
+    int mParallelism;
+    long mTotalNanos;
+    final long[] mItemNanos;
+
+    ConsumeTimings(int parallelism, int count) {
+        mParallelism = parallelism;
+        mItemNanos = new long[count];
+    }
+
+    /** Returns the maximum number of items consumed at the same time. */
+    public int getParallelism() { return mParallelism; }
+
+    /** Returns the number of items. */
+    public int getItemCount() { return mItemNanos.length; }
+
+    /** Returns the total time of the consumption, in milliseconds. */
+    public long getTotalMillis() { return toMillis(mTotalNanos); }
+
+    /**
+     * Returns the time spent consuming an item, in milliseconds.
+     *
+     * @param index The position of the item in the list of purchases.
+     */
+    public long getItemMillis(int index) { return toMillis(mItemNanos[index]); }
+
+    /** Returns the time of the slowest item, in milliseconds. */
+    public long getSlowestItemMillis() {
+        long slowest = 0;
+        for (long nanos : mItemNanos) slowest = Math.max(slowest, nanos);
+        return toMillis(slowest);
+    }
+
+    /** Returns the sum of the times of all the items, in milliseconds. */
+    public long getSumOfItemsMillis() {
+        long sum = 0;
+        for (long nanos : mItemNanos) sum += nanos;
+        return toMillis(sum);
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000L;
+    }
+
+    @Override
+    public String toString() {
+        return "ConsumeTimings(" + getItemCount() + " items, parallelism " + mParallelism
+                + "): total " + getTotalMillis() + " ms; items " + getSumOfItemsMillis()
+                + " ms; slowest " + getSlowestItemMillis() + " ms";
+    }
+}
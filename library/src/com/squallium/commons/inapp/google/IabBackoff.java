@@ -0,0 +1,46 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter, for operations retried in the background.
+ *
+ * The n-th delay is drawn at random between half and all of
+ * initialDelay * 2^n, capped at maxDelay. The jitter keeps the retries of many
+ * devices (or many helpers) from hitting the service in lockstep after a
+ * common outage. Instances are safe to use from several threads.
+ */
+class IabBackoff {
+    private final long mInitialDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom = new Random();
+
+    // Number of delays handed out since the last reset
+    private int mAttempts;
+
+    IabBackoff(long initialDelayMillis, long maxDelayMillis) {
+        mInitialDelayMillis = initialDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    /** Returns the delay before the next attempt, in milliseconds. */
+    synchronized long nextDelayMillis() {
+        long delay = mMaxDelayMillis;
+        if (mAttempts < 62 && mInitialDelayMillis <= (mMaxDelayMillis >> mAttempts)) {
+            delay = mInitialDelayMillis << mAttempts;
+        }
+        mAttempts++;
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+
+    /** Returns the number of delays handed out since the last reset. */
+    synchronized int getAttempts() {
+        return mAttempts;
+    }
+
+    /** Starts over from the initial delay, after a successful attempt. */
+    synchronized void reset() {
+        mAttempts = 0;
+    }
+}
@@ -0,0 +1,93 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors used by {@link IabHelper} to run its asynchronous operations.
+ *
+ * Instead of creating a new thread for every inventory query or consumption,
+ * all the helpers of the process share a small, bounded pool of named worker
+ * threads. Workers are started as operations come in, up to the pool size,
+ * and stop after being idle for a while. When all of them are busy and the
+ * work queue is full, new operations are
+ * rejected with a {@link java.util.concurrent.RejectedExecutionException} and
+ * the helper reports {@link IabHelper#IABHELPER_ASYNC_REJECTED} to the
+ * operation's listener.
+ *
+ * You can replace the shared pool with your own executor by calling
+ * {@link IabHelper#setExecutor}.
+ */
+public class IabExecutors {
+    // Maximum number of worker threads in the shared pool
+    public static final int POOL_SIZE = 4;
+
+    // Maximum number of operations waiting for a free worker
+    public static final int QUEUE_CAPACITY = 64;
+
+    // How long an idle worker is kept alive
+    public static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ThreadPoolExecutor sDefault;
+
+    /** Defeats instantiation. */
+    private IabExecutors() {
+    }
+
+    /**
+     * Returns the executor shared by all the {@link IabHelper} instances
+     * that don't have their own. It is created on first use.
+     */
+    public static synchronized Executor getDefault() {
+        if (sDefault == null) {
+            sDefault = newBoundedExecutor("IabHelper", POOL_SIZE, QUEUE_CAPACITY);
+        }
+        return sDefault;
+    }
+
+    /**
+     * Creates a bounded executor with named worker threads. Operations
+     * submitted when all the workers are busy wait in a queue of at most
+     * queueCapacity entries; beyond that, they are rejected.
+     *
+     * A ThreadPoolExecutor only grows past its core size when its queue is
+     * full, so the core size is the pool size: every worker can run before
+     * operations start queueing. Idle workers stop after
+     * {@link #KEEP_ALIVE_SECONDS}.
+     *
+     * @param name Prefix for the worker thread names ("name #1", "name #2"...).
+     * @param poolSize Maximum number of worker threads.
+     * @param queueCapacity Maximum number of operations waiting for a worker.
+     * @return The new executor.
+     */
+    public static ThreadPoolExecutor newBoundedExecutor(String name, int poolSize,
+            int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueCapacity),
+                new NamedThreadFactory(name),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // Creates daemon worker threads named after the pool
+    static class NamedThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        NamedThreadFactory(String name) {
+            mName = name;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, mName + " #" + mCount.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import android.content.Intent;
 import android.content.IntentSender.SendIntentException;
 import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.DeadObjectException;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.RemoteException;
@@ -33,8 +34,23 @@ import com.android.vending.billing.IInAppBillingService;
 
 import org.json.JSONException;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
@@ -62,9 +78,12 @@ import java.util.List;
  * A note about threading: When using this object from a background thread, you may
  * call the blocking versions of methods; when using from a UI thread, call
  * only the asynchronous versions and handle the results via callbacks.
- * Also, notice that you can only call one asynchronous operation at a time;
- * attempting to start a second asynchronous operation while the first one
- * has not yet completed will result in an exception being thrown.
+ * Asynchronous operations run on a shared, bounded pool of worker threads
+ * (see {@link IabExecutors}) unless you provide your own with {@link #setExecutor}.
+ * Also, notice that asynchronous operations run one at a time; if you start
+ * an asynchronous operation while another one is in progress, it is queued and
+ * will be started once the ones before it have completed (see
+ * {@link IabOperationScheduler}).
  *
  * @author Bruno Oliveira (Google)
  *
@@ -74,8 +93,8 @@ public class IabHelper {
     boolean mDebugLog = false;
     String mDebugTag = "IabHelper";
 
-    // Is setup done?
-    boolean mSetupDone = false;
+    // Is setup done? (set by a worker thread)
+    volatile boolean mSetupDone = false;
 
     // Has this object been disposed of? (If so, we should ignore callbacks, etc)
     boolean mDisposed = false;
@@ -83,30 +102,136 @@ public class IabHelper {
     // Are subscriptions supported?
     boolean mSubscriptionsSupported = false;
 
-    // Is an asynchronous operation in progress?
-    // (only one at a time can be in progress)
-    boolean mAsyncInProgress = false;
+    // Runs the asynchronous operations one at a time, queueing the ones that
+    // are started while another is in progress
+    IabOperationScheduler mScheduler = new IabOperationScheduler();
 
-    // (for logging/debugging)
-    // if mAsyncInProgress == true, what asynchronous operation is in progress?
-    String mAsyncOperation = "";
+    // Number of async operations scheduled so far
+    final AtomicInteger mScheduledCount = new AtomicInteger();
+
+    // Deadline of the async operations, by name, and of those that don't have their own
+    final ConcurrentHashMap<String, Long> mOperationTimeouts = new ConcurrentHashMap<String, Long>();
+    volatile long mDefaultOperationTimeoutMillis = DEFAULT_OPERATION_TIMEOUT_MILLIS;
+
+    // Number of async operations that timed out, and that were cancelled, by name
+    final ConcurrentHashMap<String, AtomicInteger> mTimeoutCounts =
+            new ConcurrentHashMap<String, AtomicInteger>();
+    final ConcurrentHashMap<String, AtomicInteger> mCancelCounts =
+            new ConcurrentHashMap<String, AtomicInteger>();
+
+    // Async inventory queries scheduled and not finished yet, which identical queries
+    // can join instead of running again
+    final List<InventoryQuery> mInventoryQueries = new ArrayList<InventoryQuery>();
+
+    // Number of inventory queries coalesced with a pending one
+    final AtomicInteger mCoalescedQueries = new AtomicInteger();
 
     // Context we were passed during initialization
     Context mContext;
 
-    // Connection to the service
-    IInAppBillingService mService;
+    // Connection to the service (mService is null while disconnected)
+    volatile IInAppBillingService mService;
     ServiceConnection mServiceConn;
+    Intent mServiceIntent;
+
+    // Handler of the thread that started the setup, where the service is rebound
+    Handler mConnectionHandler;
+
+    // Delays between the attempts to rebind the service after losing the connection
+    final IabBackoff mReconnectBackoff = new IabBackoff(RECONNECT_INITIAL_DELAY_MILLIS,
+            RECONNECT_MAX_DELAY_MILLIS);
 
-    // The request code used to launch purchase flow
-    int mRequestCode;
+    // Guards mReconnecting and mWaitingForService
+    final Object mConnectionLock = new Object();
 
-    // The item type of the current purchase flow
-    String mPurchasingItemType;
+    // Was the connection lost after setup, and not restored yet?
+    boolean mReconnecting = false;
+
+    // Operations whose turn came while reconnecting, with the handler to start them on
+    final List<Handler> mWaitingHandlers = new ArrayList<Handler>();
+    final List<Runnable> mWaitingForService = new ArrayList<Runnable>();
+
+    // When the connection was lost (System.nanoTime)
+    volatile long mDisconnectedNanos;
+
+    // Connection statistics
+    final AtomicInteger mDisconnectCount = new AtomicInteger();
+    final AtomicInteger mReconnectCount = new AtomicInteger();
+    volatile long mLastReconnectNanos = -1;
+
+    // The purchase flows whose purchase screen is open, by request code
+    final Map<Integer, PurchaseFlow> mPurchaseFlows = new HashMap<Integer, PurchaseFlow>();
 
     // Public key for verifying signature, in base64 encoding
     String mSignatureBase64 = null;
 
+    // Executor that runs the asynchronous operations (shared pool by default)
+    Executor mExecutor = IabExecutors.getDefault();
+
+    // Maximum number of getSkuDetails requests in flight at the same time
+    int mSkuDetailsParallelism = 1;
+
+    // Maximum number of threads verifying the signatures of a page of purchases
+    int mVerificationParallelism = Math.min(Runtime.getRuntime().availableProcessors(),
+            IabExecutors.POOL_SIZE);
+
+    // Maximum number of consumePurchase requests in flight at the same time
+    int mConsumeParallelism = 1;
+
+    // Are the purchases returned by the purchase activity verified on the executor?
+    boolean mAsyncPurchaseVerification = true;
+
+    // Do the products and subscriptions branches of queryInventory run concurrently?
+    boolean mConcurrentInventoryQuery = false;
+
+    // Timing breakdown of the last inventory query
+    volatile InventoryTimings mLastInventoryTimings;
+
+    // Timing breakdown of the billing support checks of the setup
+    volatile SetupTimings mSetupTimings;
+
+    // Receives the latency and response of every billing service call
+    volatile IabMetricsSink mMetricsSink = new IabMetrics();
+
+    // When the setup started, to measure it
+    long mSetupStartNanos;
+
+    // When the pending bind (or rebind) started, or 0 if the service isn't being bound
+    final AtomicLong mBindStartNanos = new AtomicLong();
+
+    // Timing breakdown of the last multi-item consumption
+    volatile ConsumeTimings mLastConsumeTimings;
+
+    // The inventory of the last successful query, published for readers on any thread
+    final AtomicReference<Inventory> mLatestInventory = new AtomicReference<Inventory>();
+
+    // File where the last verified inventory is saved (null if disabled)
+    File mInventorySnapshotFile;
+
+    // Guards the reads and writes of the inventory snapshot
+    final Object mSnapshotLock = new Object();
+
+    // Consumed items still to be removed from the snapshot, and whether a rewrite that
+    // will remove them is scheduled (see removeFromInventorySnapshot)
+    final Set<String> mSnapshotRemovals = Collections.synchronizedSet(new LinkedHashSet<String>());
+    final AtomicBoolean mSnapshotRewriteScheduled = new AtomicBoolean();
+
+    // Journal of the consumptions to retry (null if disabled)
+    volatile ConsumeJournal mConsumeJournal;
+
+    // Handler where the consumption retries are timed and their results posted
+    volatile Handler mConsumeRetryHandler;
+
+    // Listener notified when a retried consumption settles
+    volatile OnConsumeFinishedListener mConsumeRetryListener;
+
+    // Delays between the consumption retries
+    final IabBackoff mConsumeRetryBackoff = new IabBackoff(CONSUME_RETRY_INITIAL_DELAY_MILLIS,
+            CONSUME_RETRY_MAX_DELAY_MILLIS);
+
+    // Is a consumption retry scheduled and not started yet?
+    final AtomicBoolean mConsumeRetryScheduled = new AtomicBoolean();
+
     // Billing response codes
     public static final int BILLING_RESPONSE_RESULT_OK = 0;
     public static final int BILLING_RESPONSE_RESULT_USER_CANCELED = 1;
@@ -129,6 +254,27 @@ public class IabHelper {
     public static final int IABHELPER_UNKNOWN_ERROR = -1008;
     public static final int IABHELPER_SUBSCRIPTIONS_NOT_AVAILABLE = -1009;
     public static final int IABHELPER_INVALID_CONSUMPTION = -1010;
+    public static final int IABHELPER_ASYNC_REJECTED = -1011;
+    public static final int IABHELPER_NO_SNAPSHOT = -1012;
+    public static final int IABHELPER_OPERATION_TIMED_OUT = -1013;
+    public static final int IABHELPER_OPERATION_CANCELLED = -1014;
+
+    // Names of the asynchronous operations (see IabOperation#getName)
+    public static final String OPERATION_REFRESH_INVENTORY = "refresh inventory";
+    public static final String OPERATION_CONSUME = "consume";
+    public static final String OPERATION_LAUNCH_PURCHASE_FLOW = "launchPurchaseFlow";
+    public static final String OPERATION_RETRY_CONSUMES = "retry consumes";
+
+    // Default deadline of the asynchronous operations (see setOperationTimeout)
+    public static final long DEFAULT_OPERATION_TIMEOUT_MILLIS = 60 * 1000;
+
+    // Delays between the retries of the journaled consumptions (see setConsumeJournalFile)
+    public static final long CONSUME_RETRY_INITIAL_DELAY_MILLIS = 2000;
+    public static final long CONSUME_RETRY_MAX_DELAY_MILLIS = 10 * 60 * 1000;
+
+    // Delays between the attempts to rebind the billing service after losing the connection
+    public static final long RECONNECT_INITIAL_DELAY_MILLIS = 1000;
+    public static final long RECONNECT_MAX_DELAY_MILLIS = 60 * 1000;
 
     // Keys for the responses from InAppBillingService
     public static final String RESPONSE_CODE = "RESPONSE_CODE";
@@ -149,6 +295,9 @@ public class IabHelper {
     public static final String GET_SKU_DETAILS_ITEM_LIST = "ITEM_ID_LIST";
     public static final String GET_SKU_DETAILS_ITEM_TYPE_LIST = "ITEM_TYPE_LIST";
 
+    // Maximum number of SKUs Google Play accepts in a single getSkuDetails request
+    public static final int GET_SKU_DETAILS_MAX_SKUS = 20;
+
     /**
      * Creates an instance. After creation, it will not yet be ready to use. You must perform
      * setup by calling {@link #startSetup} and wait for setup to complete. This constructor does not
@@ -180,6 +329,241 @@ public class IabHelper {
         mDebugLog = enable;
     }
 
+    /**
+     * Sets the executor used to run the asynchronous operations. By default, all the
+     * helpers share the bounded pool returned by {@link IabExecutors#getDefault}.
+     *
+     * @param executor The executor to use, or null to go back to the shared pool.
+     */
+    public void setExecutor(Executor executor) {
+        checkNotDisposed();
+        mExecutor = (executor != null) ? executor : IabExecutors.getDefault();
+    }
+
+    /**
+     * Sets how many getSkuDetails requests can be in flight at the same time while
+     * querying the inventory. SKU details are always requested in chunks of at most
+     * {@link #GET_SKU_DETAILS_MAX_SKUS} SKUs; with large catalogs, raising this value
+     * fetches the chunks of each item type in parallel.
+     *
+     * @param parallelism Maximum number of concurrent requests; 1 (the default)
+     *     sends them one after another.
+     */
+    public void setSkuDetailsParallelism(int parallelism) {
+        checkNotDisposed();
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1");
+        mSkuDetailsParallelism = parallelism;
+    }
+
+    /**
+     * Sets how many threads can verify the signatures of a page of purchases at the same
+     * time. Verification is CPU-bound, so by default a page is spread over as many threads
+     * as there are cores (up to {@link IabExecutors#POOL_SIZE}): the querying thread
+     * and helpers run by the executor. Results keep the order of the page.
+     *
+     * @param parallelism Maximum number of threads; 1 verifies on the querying thread only.
+     */
+    public void setVerificationParallelism(int parallelism) {
+        checkNotDisposed();
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1");
+        mVerificationParallelism = parallelism;
+    }
+
+    /**
+     * Sets how many consumePurchase requests can be in flight at the same time while
+     * consuming several items with {@link #consumeAsync(List, OnConsumeMultiFinishedListener)}.
+     * Each item is still consumed with its own request, and the results keep the order of
+     * the purchases.
+     *
+     * @param parallelism Maximum number of concurrent requests; 1 (the default)
+     *     consumes the items one after another.
+     */
+    public void setConsumeParallelism(int parallelism) {
+        checkNotDisposed();
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1");
+        mConsumeParallelism = parallelism;
+    }
+
+    /**
+     * Enables or disables the asynchronous verification of purchases. When enabled (the
+     * default), {@link #handleActivityResult} hands the parsing and the signature
+     * verification of a successful purchase to the executor, and returns right away; the
+     * purchase listener is then called back on the UI thread once the purchase is verified.
+     * When disabled, the purchase is verified on the UI thread, and the listener is called
+     * before handleActivityResult returns, as in earlier versions.
+     */
+    public void setAsyncPurchaseVerification(boolean async) {
+        checkNotDisposed();
+        mAsyncPurchaseVerification = async;
+    }
+
+    /**
+     * Enables or disables concurrent inventory queries. When enabled, {@link #queryInventory}
+     * queries products and subscriptions (owned purchases, then SKU details) at the same time
+     * instead of one after the other. The results are merged into a single Inventory.
+     */
+    public void setConcurrentInventoryQuery(boolean concurrent) {
+        checkNotDisposed();
+        mConcurrentInventoryQuery = concurrent;
+    }
+
+    /**
+     * Returns the inventory of the last successful query, or null if no inventory has been
+     * queried yet. Items consumed since then are erased from it. It can be read from any
+     * thread without locking; see {@link Inventory}.
+     */
+    public Inventory getLatestInventory() {
+        return mLatestInventory.get();
+    }
+
+    /**
+     * Returns a copy of the latest inventory (see {@link #getLatestInventory}) marked as
+     * stale (see {@link Inventory#isStale}), or null if no inventory has been queried yet.
+     * Like the inventory saved by a previous session, it can stand in while a fresh one
+     * is queried, for instance by an Activity sharing the helper of another one.
+     */
+    public Inventory getCachedInventory() {
+        Inventory latest = mLatestInventory.get();
+        if (latest == null) return null;
+        Inventory inv = latest.snapshot();
+        inv.mStale = true;
+        return inv;
+    }
+
+    /**
+     * Sets the sink of the metrics of the billing service calls (see {@link IabMetrics} for
+     * the operations measured). Set it before starting the setup, so that every operation
+     * reported as started is also reported as finished to the same sink.
+     *
+     * @param sink The sink, or null to stop measuring. Defaults to an {@link IabMetrics}.
+     */
+    public void setMetricsSink(IabMetricsSink sink) {
+        mMetricsSink = (sink != null) ? sink : IabMetricsSink.NONE;
+    }
+
+    /** Returns the sink of the metrics of the billing service calls. */
+    public IabMetricsSink getMetricsSink() {
+        return mMetricsSink;
+    }
+
+    /**
+     * Returns the timing breakdown of the billing support checks made during setup, or
+     * null if they haven't finished yet.
+     */
+    public SetupTimings getSetupTimings() {
+        return mSetupTimings;
+    }
+
+    /**
+     * Returns the timing breakdown of the last inventory query, or null if no
+     * inventory has been queried yet.
+     */
+    public InventoryTimings getLastInventoryTimings() {
+        return mLastInventoryTimings;
+    }
+
+    /**
+     * Returns the timing breakdown of the last asynchronous consumption, with the time
+     * spent on each item, or null if nothing has been consumed yet.
+     */
+    public ConsumeTimings getLastConsumeTimings() {
+        return mLastConsumeTimings;
+    }
+
+    /**
+     * Enables the inventory snapshot. Every successful inventory query saves the inventory
+     * to the given file (consumed items are removed from it), so that the next session can
+     * deliver it right away with {@link #loadInventorySnapshotAsync}, before the live
+     * inventory is available.
+     *
+     * @param file The file where the snapshot is saved, usually in the app's private
+     *     files directory; null disables the snapshot.
+     */
+    public void setInventorySnapshotFile(File file) {
+        checkNotDisposed();
+        mInventorySnapshotFile = file;
+    }
+
+    /**
+     * Enables the consume journal. When a consumption fails for a transient reason (a
+     * RemoteException or {@link #BILLING_RESPONSE_RESULT_ERROR}), the purchase is appended
+     * to the given file, and its consumption is retried in the background with exponential
+     * backoff (see {@link #CONSUME_RETRY_INITIAL_DELAY_MILLIS}), including by later sessions,
+     * until it succeeds or fails for good. The original consumption still reports its
+     * failure to its listener; the retries report their outcome to retryListener, which is
+     * where the item should be granted. Retries are queued with the other asynchronous
+     * operations ({@link #OPERATION_RETRY_CONSUMES}). As the failed call may have gone
+     * through anyway, a retry answered with {@link #BILLING_RESPONSE_RESULT_ITEM_NOT_OWNED}
+     * is reported as a success.
+     *
+     * Must be called from a thread with a Looper (usually the UI thread), where retryListener
+     * is called back.
+     *
+     * @param file The file of the journal, usually in the app's private files directory;
+     *     null disables the journal.
+     * @param retryListener Notified when a retried consumption succeeds or fails for good.
+     */
+    public void setConsumeJournalFile(File file, OnConsumeFinishedListener retryListener) {
+        checkNotDisposed();
+        Handler oldHandler = mConsumeRetryHandler;
+        if (oldHandler != null) oldHandler.removeCallbacksAndMessages(null);
+        mConsumeRetryScheduled.set(false);
+        mConsumeRetryListener = retryListener;
+        mConsumeRetryHandler = (file != null) ? new Handler() : null;
+        mConsumeJournal = (file != null) ? new ConsumeJournal(file) : null;
+        // consumptions left pending by a previous session
+        if (file != null && mSetupDone) scheduleConsumeRetry(true);
+    }
+
+    /**
+     * Sets the deadline of all the asynchronous operations that don't have their own (see
+     * {@link #setOperationTimeout(String, long)}). The deadline counts from the moment the
+     * operation starts, after waiting for the operations scheduled before it; an operation
+     * that misses it ends with {@link #IABHELPER_OPERATION_TIMED_OUT} (see {@link IabOperation}).
+     *
+     * @param timeoutMillis The deadline, in milliseconds; 0 disables it. Defaults to
+     *     {@link #DEFAULT_OPERATION_TIMEOUT_MILLIS}.
+     */
+    public void setOperationTimeout(long timeoutMillis) {
+        checkNotDisposed();
+        if (timeoutMillis < 0) throw new IllegalArgumentException("timeout must not be negative");
+        mDefaultOperationTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sets the deadline of a kind of asynchronous operation, overriding the one set with
+     * {@link #setOperationTimeout(long)}.
+     *
+     * @param operation The name of the operation, such as {@link #OPERATION_REFRESH_INVENTORY}.
+     * @param timeoutMillis The deadline, in milliseconds; 0 disables it.
+     */
+    public void setOperationTimeout(String operation, long timeoutMillis) {
+        checkNotDisposed();
+        if (timeoutMillis < 0) throw new IllegalArgumentException("timeout must not be negative");
+        mOperationTimeouts.put(operation, timeoutMillis);
+    }
+
+    /** Returns how many asynchronous operations of the given name timed out. */
+    public int getTimeoutCount(String operation) {
+        AtomicInteger count = mTimeoutCounts.get(operation);
+        return (count != null) ? count.get() : 0;
+    }
+
+    /** Returns how many asynchronous operations of the given name were cancelled. */
+    public int getCancelCount(String operation) {
+        AtomicInteger count = mCancelCounts.get(operation);
+        return (count != null) ? count.get() : 0;
+    }
+
+    /**
+     * Sets a listener notified every time a queued asynchronous operation starts,
+     * with the time it spent waiting for the previous operations to finish.
+     */
+    public void setOnOperationStartedListener(IabOperationScheduler.OnOperationStartedListener listener) {
+        checkNotDisposed();
+        mScheduler.setOnOperationStartedListener(listener);
+    }
+
     /**
      * Callback for setup process. This listener's {@link #onIabSetupFinished} method is called
      * when the setup process is complete.
@@ -198,6 +582,12 @@ public class IabHelper {
      * You will be notified through the listener when the setup process is complete.
      * This method is safe to call from a UI thread.
      *
+     * If the connection to the billing service is lost after setup, the helper rebinds it
+     * with exponential backoff (see {@link #RECONNECT_INITIAL_DELAY_MILLIS}). Asynchronous
+     * operations whose turn comes in the meantime wait for the connection and then start
+     * normally; the setup listener isn't called again. Synchronous calls fail with
+     * {@link #IABHELPER_REMOTE_EXCEPTION} while disconnected.
+     *
      * @param listener The listener to notify when the setup process is complete.
      */
     public void startSetup(final OnIabSetupFinishedListener listener) {
@@ -207,58 +597,36 @@ public class IabHelper {
 
         // Connection to IAB service
         logDebug("Starting in-app billing setup.");
+        mSetupStartNanos = startMetric(IabMetrics.SETUP);
+        mConnectionHandler = new Handler();
         mServiceConn = new ServiceConnection() {
             @Override
             public void onServiceDisconnected(ComponentName name) {
                 logDebug("Billing service disconnected.");
                 mService = null;
+                if (!mDisposed && mSetupDone) onConnectionLost();
             }
 
             @Override
             public void onServiceConnected(ComponentName name, IBinder service) {
                 if (mDisposed) return;
                 logDebug("Billing service connected.");
-                mService = IInAppBillingService.Stub.asInterface(service);
-                String packageName = mContext.getPackageName();
-                try {
-                    logDebug("Checking for in-app billing 3 support.");
-
-                    // check for in-app billing v3 support
-                    int response = mService.isBillingSupported(3, packageName, ITEM_TYPE_INAPP);
-                    if (response != BILLING_RESPONSE_RESULT_OK) {
-                        if (listener != null) listener.onIabSetupFinished(new IabResult(response,
-                                "Error checking for billing v3 support."));
-
-                        // if in-app purchases aren't supported, neither are subscriptions.
-                        mSubscriptionsSupported = false;
-                        return;
-                    }
-                    logDebug("In-app billing version 3 supported for " + packageName);
-
-                    // check for v3 subscriptions support
-                    response = mService.isBillingSupported(3, packageName, ITEM_TYPE_SUBS);
-                    if (response == BILLING_RESPONSE_RESULT_OK) {
-                        logDebug("Subscriptions AVAILABLE.");
-                        mSubscriptionsSupported = true;
-                    }
-                    else {
-                        logDebug("Subscriptions NOT AVAILABLE. Response: " + response);
-                    }
-
-                    mSetupDone = true;
+                long bindStart = mBindStartNanos.getAndSet(0);
+                if (bindStart != 0) {
+                    finishMetric(IabMetrics.BIND, BILLING_RESPONSE_RESULT_OK, bindStart);
                 }
-                catch (RemoteException e) {
-                    if (listener != null) {
-                        listener.onIabSetupFinished(new IabResult(IABHELPER_REMOTE_EXCEPTION,
-                                                    "RemoteException while setting up in-app billing."));
-                    }
-                    e.printStackTrace();
+                mService = IInAppBillingService.Stub.asInterface(service);
+                if (mSetupDone) {
+                    // billing support was checked on the first connection
+                    onReconnected();
                     return;
                 }
-
-                if (listener != null) {
-                    listener.onIabSetupFinished(new IabResult(BILLING_RESPONSE_RESULT_OK, "Setup successful."));
-                }
+                checkBillingSupportAsync(new OnIabSetupFinishedListener() {
+                    public void onIabSetupFinished(IabResult result) {
+                        finishMetric(IabMetrics.SETUP, result.getResponse(), mSetupStartNanos);
+                        if (listener != null) listener.onIabSetupFinished(result);
+                    }
+                });
             }
         };
 
@@ -266,10 +634,13 @@ public class IabHelper {
         serviceIntent.setPackage("com.android.vending");
         if (!mContext.getPackageManager().queryIntentServices(serviceIntent, 0).isEmpty()) {
             // service available to handle that Intent
-            mContext.bindService(serviceIntent, mServiceConn, Context.BIND_AUTO_CREATE);
+            mServiceIntent = serviceIntent;
+            bindService();
         }
         else {
             // no service available to handle that Intent
+            finishMetric(IabMetrics.SETUP, BILLING_RESPONSE_RESULT_BILLING_UNAVAILABLE,
+                    mSetupStartNanos);
             if (listener != null) {
                 listener.onIabSetupFinished(
                         new IabResult(BILLING_RESPONSE_RESULT_BILLING_UNAVAILABLE,
@@ -278,6 +649,213 @@ public class IabHelper {
         }
     }
 
+    // Runs the billing support checks on the executor, and posts the result of the setup
+    // to the listener on the setup thread
+    void checkBillingSupportAsync(final OnIabSetupFinishedListener listener) {
+        final Handler handler = mConnectionHandler;
+        Runnable check = new Runnable() {
+            public void run() {
+                if (mDisposed) return;
+                final IabResult result = checkBillingSupport();
+                if (mDisposed || listener == null) return;
+                handler.post(new Runnable() {
+                    public void run() {
+                        if (!mDisposed) listener.onIabSetupFinished(result);
+                    }
+                });
+            }
+        };
+        try {
+            mExecutor.execute(check);
+        }
+        catch (RejectedExecutionException e) {
+            // the setup can't wait for a free worker
+            logWarn("Executor saturated: checking billing support on the setup thread.");
+            check.run();
+        }
+    }
+
+    // Checks in-app billing v3 support for products and subscriptions, at the same time,
+    // and completes the setup if supported
+    IabResult checkBillingSupport() {
+        final String packageName = mContext.getPackageName();
+        final String[] itemTypes = { ITEM_TYPE_INAPP, ITEM_TYPE_SUBS };
+        final int[] responses = new int[itemTypes.length];
+        final long[] nanos = new long[itemTypes.length];
+        final RemoteException[] errors = new RemoteException[itemTypes.length];
+
+        logDebug("Checking for in-app billing 3 support.");
+        long start = System.nanoTime();
+        // the subscriptions check is only needed if products are supported, which they
+        // almost always are: run it speculatively rather than wait for the first one
+        IabParallel.forEach(mExecutor, itemTypes.length, itemTypes.length, new IabParallel.Task() {
+            public void run(int index) {
+                long checkStart = startMetric(IabMetrics.IS_BILLING_SUPPORTED);
+                try {
+                    responses[index] = getService().isBillingSupported(3, packageName, itemTypes[index]);
+                }
+                catch (RemoteException e) {
+                    errors[index] = e;
+                    responses[index] = IABHELPER_REMOTE_EXCEPTION;
+                }
+                nanos[index] = finishMetric(IabMetrics.IS_BILLING_SUPPORTED, responses[index], checkStart);
+            }
+        });
+        SetupTimings timings = new SetupTimings();
+        timings.mTotalNanos = System.nanoTime() - start;
+        timings.mInAppNanos = nanos[0];
+        timings.mSubsNanos = nanos[1];
+        mSetupTimings = timings;
+        logDebug("Billing support checked. " + timings);
+
+        if (errors[0] != null) {
+            errors[0].printStackTrace();
+            return new IabResult(IABHELPER_REMOTE_EXCEPTION,
+                    "RemoteException while setting up in-app billing.");
+        }
+        if (responses[0] != BILLING_RESPONSE_RESULT_OK) {
+            // if in-app purchases aren't supported, neither are subscriptions.
+            mSubscriptionsSupported = false;
+            return new IabResult(responses[0], "Error checking for billing v3 support.");
+        }
+        logDebug("In-app billing version 3 supported for " + packageName);
+
+        if (errors[1] != null) {
+            errors[1].printStackTrace();
+            return new IabResult(IABHELPER_REMOTE_EXCEPTION,
+                    "RemoteException while setting up in-app billing.");
+        }
+        if (responses[1] == BILLING_RESPONSE_RESULT_OK) {
+            logDebug("Subscriptions AVAILABLE.");
+            mSubscriptionsSupported = true;
+        }
+        else {
+            logDebug("Subscriptions NOT AVAILABLE. Response: " + responses[1]);
+        }
+
+        mSetupDone = true;
+
+        // consumptions left pending by a previous session
+        if (mConsumeJournal != null) scheduleConsumeRetry(true);
+        return new IabResult(BILLING_RESPONSE_RESULT_OK, "Setup successful.");
+    }
+
+    // Called on the setup thread when the connection is lost after setup
+    void onConnectionLost() {
+        mDisconnectedNanos = System.nanoTime();
+        synchronized (mConnectionLock) {
+            mReconnecting = true;
+        }
+        int disconnects = mDisconnectCount.incrementAndGet();
+        logWarn("Lost the connection to the billing service (" + disconnects + " time(s) so far).");
+        scheduleRebind();
+    }
+
+    // Called on the setup thread when the connection is back after being lost
+    void onReconnected() {
+        Handler connectionHandler = mConnectionHandler;
+        if (connectionHandler != null) connectionHandler.removeCallbacks(mRebind);
+        mReconnectBackoff.reset();
+        long latency = System.nanoTime() - mDisconnectedNanos;
+        mLastReconnectNanos = latency;
+        int reconnects = mReconnectCount.incrementAndGet();
+
+        List<Handler> handlers;
+        List<Runnable> waiting;
+        synchronized (mConnectionLock) {
+            mReconnecting = false;
+            handlers = new ArrayList<Handler>(mWaitingHandlers);
+            waiting = new ArrayList<Runnable>(mWaitingForService);
+            mWaitingHandlers.clear();
+            mWaitingForService.clear();
+        }
+        logDebug("Reconnected to the billing service in " + (latency / 1000000L) + " ms ("
+                + reconnects + " time(s) so far); replaying " + waiting.size() + " operation(s).");
+        for (int i = 0; i < waiting.size(); i++) {
+            handlers.get(i).post(waiting.get(i));
+        }
+        // consumptions that failed while disconnected
+        if (mConsumeJournal != null) scheduleConsumeRetry(true);
+    }
+
+    // Binds the billing service. The bind is measured from the first attempt until the
+    // service is connected, however many rebinding attempts that takes.
+    void bindService() {
+        long now = System.nanoTime();
+        if (mBindStartNanos.compareAndSet(0, now)) mMetricsSink.onStart(IabMetrics.BIND);
+        mContext.bindService(mServiceIntent, mServiceConn, Context.BIND_AUTO_CREATE);
+    }
+
+    // Rebinds the service, unless the connection came back in the meantime
+    final Runnable mRebind = new Runnable() {
+        public void run() {
+            Context context = mContext;
+            if (mDisposed || mService != null || context == null) return;
+            logDebug("Rebinding the billing service (attempt " + mReconnectBackoff.getAttempts() + ").");
+            try {
+                context.unbindService(mServiceConn);
+            }
+            catch (IllegalArgumentException e) {
+                // not bound anymore
+            }
+            bindService();
+            scheduleRebind();
+        }
+    };
+
+    // Schedules the next rebinding attempt, after the next backoff delay
+    void scheduleRebind() {
+        Handler connectionHandler = mConnectionHandler;
+        if (connectionHandler == null || mServiceIntent == null) return;
+        connectionHandler.removeCallbacks(mRebind);
+        connectionHandler.postDelayed(mRebind, mReconnectBackoff.nextDelayMillis());
+    }
+
+    // Starts an operation whose turn has come, or keeps it until the connection is back
+    void startWhenConnected(Handler handler, Runnable start) {
+        synchronized (mConnectionLock) {
+            if (mReconnecting) {
+                logDebug("Waiting for the billing service to start async operation: "
+                        + mScheduler.getCurrentOperation());
+                mWaitingHandlers.add(handler);
+                mWaitingForService.add(start);
+                return;
+            }
+        }
+        start.run();
+    }
+
+    // Returns the connected service, or throws if the connection was lost
+    IInAppBillingService getService() throws RemoteException {
+        IInAppBillingService service = mService;
+        if (service == null) throw new DeadObjectException();
+        return service;
+    }
+
+    /** Returns whether the helper is connected to the billing service. */
+    public boolean isConnected() {
+        return mService != null;
+    }
+
+    /** Returns how many times the connection to the billing service was lost after setup. */
+    public int getDisconnectCount() {
+        return mDisconnectCount.get();
+    }
+
+    /** Returns how many times the connection to the billing service was restored. */
+    public int getReconnectCount() {
+        return mReconnectCount.get();
+    }
+
+    /**
+     * Returns how long it took to restore the connection the last time it was lost, in
+     * milliseconds, or -1 if it has never been restored.
+     */
+    public long getLastReconnectMillis() {
+        long nanos = mLastReconnectNanos;
+        return nanos < 0 ? -1 : nanos / 1000000L;
+    }
+
     /**
      * Dispose of object, releasing resources. It's very important to call this
      * method when you are done with this object. It will release any resources
@@ -292,10 +870,28 @@ public class IabHelper {
             if (mContext != null) mContext.unbindService(mServiceConn);
         }
         mDisposed = true;
+        mScheduler.clear();
+        Handler connectionHandler = mConnectionHandler;
+        if (connectionHandler != null) connectionHandler.removeCallbacks(mRebind);
+        mConnectionHandler = null;
+        synchronized (mConnectionLock) {
+            mReconnecting = false;
+            mWaitingHandlers.clear();
+            mWaitingForService.clear();
+        }
+        Handler retryHandler = mConsumeRetryHandler;
+        if (retryHandler != null) retryHandler.removeCallbacksAndMessages(null);
+        mConsumeRetryHandler = null;
+        mConsumeRetryListener = null;
+        synchronized (mInventoryQueries) {
+            mInventoryQueries.clear();
+        }
         mContext = null;
         mServiceConn = null;
         mService = null;
-        mPurchaseListener = null;
+        synchronized (mPurchaseFlows) {
+            mPurchaseFlows.clear();
+        }
     }
 
     private void checkNotDisposed() {
@@ -325,27 +921,40 @@ public class IabHelper {
         public void onIabPurchaseFinished(IabResult result, Purchase info);
     }
 
-    // The listener registered on launchPurchaseFlow, which we have to call back when
-    // the purchase finishes
-    OnIabPurchaseFinishedListener mPurchaseListener;
+    // A purchase flow whose purchase screen is open: the listener registered on
+    // launchPurchaseFlow, which we have to call back when the purchase finishes
+    static class PurchaseFlow {
+        final String mSku;
+        final String mItemType;
+        final OnIabPurchaseFinishedListener mListener;
+
+        PurchaseFlow(String sku, String itemType, OnIabPurchaseFinishedListener listener) {
+            mSku = sku;
+            mItemType = itemType;
+            mListener = listener;
+        }
+    }
+
+    // Timing breakdown of the last purchase flow launch
+    volatile PurchaseLaunchTimings mLastPurchaseLaunchTimings;
 
-    public void launchPurchaseFlow(Activity act, String sku, int requestCode, OnIabPurchaseFinishedListener listener) {
-        launchPurchaseFlow(act, sku, requestCode, listener, "");
+    public IabOperation launchPurchaseFlow(Activity act, String sku, int requestCode, OnIabPurchaseFinishedListener listener) {
+        return launchPurchaseFlow(act, sku, requestCode, listener, "");
     }
 
-    public void launchPurchaseFlow(Activity act, String sku, int requestCode,
+    public IabOperation launchPurchaseFlow(Activity act, String sku, int requestCode,
             OnIabPurchaseFinishedListener listener, String extraData) {
-        launchPurchaseFlow(act, sku, ITEM_TYPE_INAPP, requestCode, listener, extraData);
+        return launchPurchaseFlow(act, sku, ITEM_TYPE_INAPP, requestCode, listener, extraData);
     }
 
-    public void launchSubscriptionPurchaseFlow(Activity act, String sku, int requestCode,
+    public IabOperation launchSubscriptionPurchaseFlow(Activity act, String sku, int requestCode,
             OnIabPurchaseFinishedListener listener) {
-        launchSubscriptionPurchaseFlow(act, sku, requestCode, listener, "");
+        return launchSubscriptionPurchaseFlow(act, sku, requestCode, listener, "");
     }
 
-    public void launchSubscriptionPurchaseFlow(Activity act, String sku, int requestCode,
+    public IabOperation launchSubscriptionPurchaseFlow(Activity act, String sku, int requestCode,
             OnIabPurchaseFinishedListener listener, String extraData) {
-        launchPurchaseFlow(act, sku, ITEM_TYPE_SUBS, requestCode, listener, extraData);
+        return launchPurchaseFlow(act, sku, ITEM_TYPE_SUBS, requestCode, listener, extraData);
     }
 
     /**
@@ -354,7 +963,12 @@ public class IabHelper {
      * the user interacts with Google Play, and the result will be delivered via the activity's
      * {@link android.app.Activity#onActivityResult} method, at which point you must call
      * this object's {@link #handleActivityResult} method to continue the purchase flow. This method
-     * MUST be called from the UI thread of the Activity.
+     * MUST be called from the UI thread of the Activity. If another asynchronous operation is in
+     * progress, the purchase flow is launched once it (and any other queued operation) finishes.
+     * Once the purchase screen is open, other operations (inventory queries, consumptions and
+     * other purchase flows) don't wait for it to be closed. The result is routed to the
+     * listener of the flow launched with the same request code, so every flow that can be open
+     * at the same time needs its own request code.
      *
      * @param act The calling activity.
      * @param sku The sku of the item to purchase.
@@ -365,67 +979,227 @@ public class IabHelper {
      * @param extraData Extra data (developer payload), which will be returned with the purchase data
      *     when the purchase completes. This extra data will be permanently bound to that purchase
      *     and will always be returned when the purchase is queried.
+     * @return A handle to cancel the launch; once the purchase screen is open, the operation
+     *     is over.
      */
-    public void launchPurchaseFlow(Activity act, String sku, String itemType, int requestCode,
-                        OnIabPurchaseFinishedListener listener, String extraData) {
+    public IabOperation launchPurchaseFlow(final Activity act, final String sku, final String itemType,
+                        final int requestCode, final OnIabPurchaseFinishedListener listener,
+                        final String extraData) {
         checkNotDisposed();
         checkSetupDone("launchPurchaseFlow");
-        flagStartAsync("launchPurchaseFlow");
+        final long callNanos = System.nanoTime();
+        final IabOperation op = newPurchaseOperation(new Handler(), listener);
+        scheduleAsync(op, new Runnable() {
+            public void run() {
+                startPurchaseFlow(op, act, sku, itemType, requestCode, listener, extraData, callNanos);
+            }
+        });
+        return op;
+    }
+
+    public IabOperation launchPurchaseFlowAsync(Activity act, String sku, int requestCode,
+            OnIabPurchaseFinishedListener listener, String extraData) {
+        return launchPurchaseFlowAsync(act, sku, ITEM_TYPE_INAPP, requestCode, listener, extraData);
+    }
+
+    /**
+     * Same as {@link #launchPurchaseFlow}, but the buy intent is requested from the billing
+     * service on a worker thread, instead of blocking the UI thread; the purchase screen is
+     * then started on the UI thread. If the request fails, the listener is called back on
+     * the UI thread. This method MUST be called from the UI thread of the Activity.
+     */
+    public IabOperation launchPurchaseFlowAsync(final Activity act, final String sku, final String itemType,
+                        final int requestCode, final OnIabPurchaseFinishedListener listener,
+                        final String extraData) {
+        checkNotDisposed();
+        checkSetupDone("launchPurchaseFlowAsync");
+        final long callNanos = System.nanoTime();
+        final Handler handler = new Handler();
+        final IabOperation op = newPurchaseOperation(handler, listener);
+        scheduleAsync(op, new Runnable() {
+            public void run() {
+                startPurchaseFlowAsync(op, handler, act, sku, itemType, requestCode, listener,
+                        extraData, callNanos);
+            }
+        });
+        return op;
+    }
+
+    // Creates the operation of a purchase flow launch
+    IabOperation newPurchaseOperation(Handler handler, OnIabPurchaseFinishedListener listener) {
+        IabOperation op = new IabOperation(this, OPERATION_LAUNCH_PURCHASE_FLOW, handler);
+        final OnIabPurchaseFinishedListener poster = postingListener(handler, listener);
+        op.mAborter = new IabOperation.Aborter() {
+            public void abort(IabResult result) {
+                poster.onIabPurchaseFinished(result, null);
+            }
+        };
+        return op;
+    }
+
+    /**
+     * Returns the timing breakdown of the last purchase flow launch, or null if no purchase
+     * flow has been launched yet.
+     */
+    public PurchaseLaunchTimings getLastPurchaseLaunchTimings() {
+        return mLastPurchaseLaunchTimings;
+    }
+
+    // Launches a purchase flow once its turn has come (see launchPurchaseFlow)
+    void startPurchaseFlow(IabOperation op, Activity act, String sku, String itemType, int requestCode,
+                        OnIabPurchaseFinishedListener listener, String extraData, long callNanos) {
+        if (mDisposed) return;
+        PurchaseLaunchTimings timings = new PurchaseLaunchTimings(false);
+        timings.mQueuedNanos = System.nanoTime() - callNanos;
+        PendingIntent pendingIntent = requestBuyIntent(op, sku, itemType, listener, extraData, timings);
+        if (pendingIntent != null && !op.isDone()) {
+            sendBuyIntent(op, act, pendingIntent, sku, itemType, requestCode, listener, timings, callNanos);
+        }
+    }
+
+    // Launches a purchase flow once its turn has come, requesting the buy intent on the
+    // executor (see launchPurchaseFlowAsync)
+    void startPurchaseFlowAsync(final IabOperation op, final Handler handler, final Activity act, final String sku,
+                        final String itemType, final int requestCode,
+                        final OnIabPurchaseFinishedListener listener, final String extraData,
+                        final long callNanos) {
+        if (mDisposed) return;
+        final PurchaseLaunchTimings timings = new PurchaseLaunchTimings(true);
+        timings.mQueuedNanos = System.nanoTime() - callNanos;
+        boolean started = executeAsync(new Runnable() {
+            public void run() {
+                final PendingIntent pendingIntent = requestBuyIntent(op, sku, itemType,
+                        postingListener(handler, listener), extraData, timings);
+                if (pendingIntent == null) return;
+                handler.post(new Runnable() {
+                    public void run() {
+                        // don't open the purchase screen of a launch that timed out
+                        if (mDisposed || op.isDone()) return;
+                        sendBuyIntent(op, act, pendingIntent, sku, itemType, requestCode, listener,
+                                timings, callNanos);
+                    }
+                });
+            }
+        });
+
+        if (!started) {
+            if (!endAsync(op)) return;
+            if (listener != null) {
+                listener.onIabPurchaseFinished(new IabResult(IABHELPER_ASYNC_REJECTED,
+                        "Can't launch purchase flow now, too many operations pending."), null);
+            }
+        }
+    }
+
+    // Gets the buy intent of a purchase from the billing service. On failure, ends the
+    // operation, notifies the listener and returns null.
+    PendingIntent requestBuyIntent(IabOperation op, String sku, String itemType,
+                        OnIabPurchaseFinishedListener listener, String extraData,
+                        PurchaseLaunchTimings timings) {
         IabResult result;
 
         if (itemType.equals(ITEM_TYPE_SUBS) && !mSubscriptionsSupported) {
             IabResult r = new IabResult(IABHELPER_SUBSCRIPTIONS_NOT_AVAILABLE,
                     "Subscriptions are not available.");
-            flagEndAsync();
-            if (listener != null) listener.onIabPurchaseFinished(r, null);
-            return;
+            if (endAsync(op) && listener != null) listener.onIabPurchaseFinished(r, null);
+            return null;
         }
 
         try {
             logDebug("Constructing buy intent for " + sku + ", item type: " + itemType);
-            Bundle buyIntentBundle = mService.getBuyIntent(3, mContext.getPackageName(), sku, itemType, extraData);
+            long start = startMetric(IabMetrics.GET_BUY_INTENT);
+            Bundle buyIntentBundle;
+            try {
+                buyIntentBundle = getService().getBuyIntent(3, mContext.getPackageName(), sku, itemType, extraData);
+            }
+            catch (RemoteException e) {
+                finishMetric(IabMetrics.GET_BUY_INTENT, IABHELPER_REMOTE_EXCEPTION, start);
+                throw e;
+            }
             int response = getResponseCodeFromBundle(buyIntentBundle);
+            timings.mBuyIntentNanos = finishMetric(IabMetrics.GET_BUY_INTENT, response, start);
             if (response != BILLING_RESPONSE_RESULT_OK) {
                 logError("Unable to buy item, Error response: " + getResponseDesc(response));
-                flagEndAsync();
                 result = new IabResult(response, "Unable to buy item");
-                if (listener != null) listener.onIabPurchaseFinished(result, null);
-                return;
+                if (endAsync(op) && listener != null) listener.onIabPurchaseFinished(result, null);
+                return null;
             }
+            return buyIntentBundle.getParcelable(RESPONSE_BUY_INTENT);
+        }
+        catch (RemoteException e) {
+            logError("RemoteException while launching purchase flow for sku " + sku);
+            e.printStackTrace();
+
+            result = new IabResult(IABHELPER_REMOTE_EXCEPTION, "Remote exception while starting purchase flow");
+            if (endAsync(op) && listener != null) listener.onIabPurchaseFinished(result, null);
+            return null;
+        }
+    }
 
-            PendingIntent pendingIntent = buyIntentBundle.getParcelable(RESPONSE_BUY_INTENT);
+    // Starts the purchase screen. Must run on the UI thread.
+    void sendBuyIntent(IabOperation op, Activity act, PendingIntent pendingIntent, String sku, String itemType,
+                        int requestCode, OnIabPurchaseFinishedListener listener,
+                        PurchaseLaunchTimings timings, long callNanos) {
+        try {
             logDebug("Launching buy intent for " + sku + ". Request code: " + requestCode);
-            mRequestCode = requestCode;
-            mPurchaseListener = listener;
-            mPurchasingItemType = itemType;
-            act.startIntentSenderForResult(pendingIntent.getIntentSender(),
-                                           requestCode, new Intent(),
-                                           Integer.valueOf(0), Integer.valueOf(0),
-                                           Integer.valueOf(0));
+            PurchaseFlow flow = new PurchaseFlow(sku, itemType, listener);
+            PurchaseFlow replaced;
+            synchronized (mPurchaseFlows) {
+                replaced = mPurchaseFlows.put(requestCode, flow);
+            }
+            if (replaced != null) {
+                logWarn("Purchase flow for " + replaced.mSku + " replaced by " + sku
+                        + ": both use request code " + requestCode + ".");
+            }
+            try {
+                act.startIntentSenderForResult(pendingIntent.getIntentSender(),
+                                               requestCode, new Intent(),
+                                               Integer.valueOf(0), Integer.valueOf(0),
+                                               Integer.valueOf(0));
+            }
+            catch (SendIntentException e) {
+                synchronized (mPurchaseFlows) {
+                    if (mPurchaseFlows.get(requestCode) == flow) mPurchaseFlows.remove(requestCode);
+                }
+                throw e;
+            }
+            // the purchase screen is open: the next operations don't have to wait for it
+            endAsync(op);
+            timings.mTotalNanos = System.nanoTime() - callNanos;
+            mLastPurchaseLaunchTimings = timings;
+            logDebug("Purchase flow launched. " + timings);
         }
         catch (SendIntentException e) {
             logError("SendIntentException while launching purchase flow for sku " + sku);
             e.printStackTrace();
-            flagEndAsync();
 
-            result = new IabResult(IABHELPER_SEND_INTENT_FAILED, "Failed to send intent.");
-            if (listener != null) listener.onIabPurchaseFinished(result, null);
+            IabResult result = new IabResult(IABHELPER_SEND_INTENT_FAILED, "Failed to send intent.");
+            if (endAsync(op) && listener != null) listener.onIabPurchaseFinished(result, null);
         }
-        catch (RemoteException e) {
-            logError("RemoteException while launching purchase flow for sku " + sku);
-            e.printStackTrace();
-            flagEndAsync();
+    }
 
-            result = new IabResult(IABHELPER_REMOTE_EXCEPTION, "Remote exception while starting purchase flow");
-            if (listener != null) listener.onIabPurchaseFinished(result, null);
-        }
+    // Returns a listener that posts the calls to the given one (if not null) to the handler
+    OnIabPurchaseFinishedListener postingListener(final Handler handler,
+                                                  final OnIabPurchaseFinishedListener listener) {
+        return new OnIabPurchaseFinishedListener() {
+            public void onIabPurchaseFinished(final IabResult result, final Purchase info) {
+                if (mDisposed || listener == null) return;
+                handler.post(new Runnable() {
+                    public void run() {
+                        listener.onIabPurchaseFinished(result, info);
+                    }
+                });
+            }
+        };
     }
 
     /**
      * Handles an activity result that's part of the purchase flow in in-app billing. If you
      * are calling {@link #launchPurchaseFlow}, then you must call this method from your
      * Activity's {@link android.app.Activity@onActivityResult} method. This method
-     * MUST be called from the UI thread of the Activity.
+     * MUST be called from the UI thread of the Activity. A successful purchase is verified
+     * in the background (see {@link #setAsyncPurchaseVerification}), so the purchase
+     * listener may be called back after this method returns.
      *
      * @param requestCode The requestCode as you received it.
      * @param resultCode The resultCode as you received it.
@@ -436,18 +1210,20 @@ public class IabHelper {
      */
     public boolean handleActivityResult(int requestCode, int resultCode, Intent data) {
         IabResult result;
-        if (requestCode != mRequestCode) return false;
+        PurchaseFlow flow;
+        synchronized (mPurchaseFlows) {
+            flow = mPurchaseFlows.remove(requestCode);
+        }
+        if (flow == null) return false;
 
         checkNotDisposed();
         checkSetupDone("handleActivityResult");
 
-        // end of async purchase operation that started on launchPurchaseFlow
-        flagEndAsync();
-
+        OnIabPurchaseFinishedListener listener = flow.mListener;
         if (data == null) {
             logError("Null data in IAB activity result.");
             result = new IabResult(IABHELPER_BAD_RESPONSE, "Null data in IAB result");
-            if (mPurchaseListener != null) mPurchaseListener.onIabPurchaseFinished(result, null);
+            if (listener != null) listener.onIabPurchaseFinished(result, null);
             return true;
         }
 
@@ -460,64 +1236,100 @@ public class IabHelper {
             logDebug("Purchase data: " + purchaseData);
             logDebug("Data signature: " + dataSignature);
             logDebug("Extras: " + data.getExtras());
-            logDebug("Expected item type: " + mPurchasingItemType);
+            logDebug("Expected item type: " + flow.mItemType);
 
             if (purchaseData == null || dataSignature == null) {
                 logError("BUG: either purchaseData or dataSignature is null.");
                 logDebug("Extras: " + data.getExtras().toString());
                 result = new IabResult(IABHELPER_UNKNOWN_ERROR, "IAB returned null purchaseData or dataSignature");
-                if (mPurchaseListener != null) mPurchaseListener.onIabPurchaseFinished(result, null);
+                if (listener != null) listener.onIabPurchaseFinished(result, null);
                 return true;
             }
 
-            Purchase purchase = null;
-            try {
-                purchase = new Purchase(mPurchasingItemType, purchaseData, dataSignature);
-                String sku = purchase.getSku();
-
-                // Verify signature
-                if (!Security.verifyPurchase(mSignatureBase64, purchaseData, dataSignature)) {
-                    logError("Purchase signature verification FAILED for sku " + sku);
-                    result = new IabResult(IABHELPER_VERIFICATION_FAILED, "Signature verification failed for sku " + sku);
-                    if (mPurchaseListener != null) mPurchaseListener.onIabPurchaseFinished(result, purchase);
-                    return true;
-                }
-                logDebug("Purchase signature successfully verified.");
+            if (mAsyncPurchaseVerification) {
+                verifyPurchaseAsync(flow.mItemType, purchaseData, dataSignature, listener);
             }
-            catch (JSONException e) {
-                logError("Failed to parse purchase data.");
-                e.printStackTrace();
-                result = new IabResult(IABHELPER_BAD_RESPONSE, "Failed to parse purchase data.");
-                if (mPurchaseListener != null) mPurchaseListener.onIabPurchaseFinished(result, null);
-                return true;
-            }
-
-            if (mPurchaseListener != null) {
-                mPurchaseListener.onIabPurchaseFinished(new IabResult(BILLING_RESPONSE_RESULT_OK, "Success"), purchase);
+            else {
+                verifyPurchase(flow.mItemType, purchaseData, dataSignature, listener);
             }
         }
         else if (resultCode == Activity.RESULT_OK) {
             // result code was OK, but in-app billing response was not OK.
             logDebug("Result code was OK but in-app billing response was not OK: " + getResponseDesc(responseCode));
-            if (mPurchaseListener != null) {
+            if (listener != null) {
                 result = new IabResult(responseCode, "Problem purchashing item.");
-                mPurchaseListener.onIabPurchaseFinished(result, null);
+                listener.onIabPurchaseFinished(result, null);
             }
         }
         else if (resultCode == Activity.RESULT_CANCELED) {
             logDebug("Purchase canceled - Response: " + getResponseDesc(responseCode));
             result = new IabResult((responseCode == 7 ? responseCode : IABHELPER_USER_CANCELLED), "User canceled.");
-            if (mPurchaseListener != null) mPurchaseListener.onIabPurchaseFinished(result, null);
+            if (listener != null) listener.onIabPurchaseFinished(result, null);
         }
         else {
             logError("Purchase failed. Result code: " + Integer.toString(resultCode)
                     + ". Response: " + getResponseDesc(responseCode));
             result = new IabResult(IABHELPER_UNKNOWN_PURCHASE_RESPONSE, "Unknown purchase response.");
-            if (mPurchaseListener != null) mPurchaseListener.onIabPurchaseFinished(result, null);
+            if (listener != null) listener.onIabPurchaseFinished(result, null);
         }
         return true;
     }
 
+    // Parses and verifies a purchase returned by the purchase activity, and notifies the
+    // listener (if not null) of the outcome
+    void verifyPurchase(String itemType, String purchaseData, String dataSignature,
+                        OnIabPurchaseFinishedListener listener) {
+        IabResult result;
+        Purchase purchase = null;
+        try {
+            purchase = new Purchase(itemType, purchaseData, dataSignature);
+            String sku = purchase.getSku();
+
+            // Verify signature
+            long start = startMetric(IabMetrics.VERIFY_SIGNATURE);
+            boolean verified = Security.verifyPurchase(mSignatureBase64, purchaseData, dataSignature);
+            finishMetric(IabMetrics.VERIFY_SIGNATURE,
+                    verified ? BILLING_RESPONSE_RESULT_OK : IABHELPER_VERIFICATION_FAILED, start);
+            if (!verified) {
+                logError("Purchase signature verification FAILED for sku " + sku);
+                result = new IabResult(IABHELPER_VERIFICATION_FAILED, "Signature verification failed for sku " + sku);
+                if (listener != null) listener.onIabPurchaseFinished(result, purchase);
+                return;
+            }
+            logDebug("Purchase signature successfully verified.");
+        }
+        catch (JSONException e) {
+            logError("Failed to parse purchase data.");
+            e.printStackTrace();
+            result = new IabResult(IABHELPER_BAD_RESPONSE, "Failed to parse purchase data.");
+            if (listener != null) listener.onIabPurchaseFinished(result, null);
+            return;
+        }
+
+        if (listener != null) {
+            listener.onIabPurchaseFinished(new IabResult(BILLING_RESPONSE_RESULT_OK, "Success"), purchase);
+        }
+    }
+
+    // Same as verifyPurchase, but on the executor: the listener is called back on the
+    // calling thread
+    void verifyPurchaseAsync(final String itemType, final String purchaseData,
+                             final String dataSignature, final OnIabPurchaseFinishedListener listener) {
+        final OnIabPurchaseFinishedListener poster = postingListener(new Handler(), listener);
+        try {
+            mExecutor.execute(new Runnable() {
+                public void run() {
+                    verifyPurchase(itemType, purchaseData, dataSignature, poster);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // the purchase has been made: verify it here rather than lose it
+            logWarn("Executor saturated: verifying the purchase on the calling thread.");
+            verifyPurchase(itemType, purchaseData, dataSignature, listener);
+        }
+    }
+
     public Inventory queryInventory(boolean querySkuDetails, List<String> moreSkus) throws IabException {
         return queryInventory(querySkuDetails, moreSkus, null);
     }
@@ -532,42 +1344,83 @@ public class IabHelper {
      * @param moreItemSkus additional PRODUCT skus to query information on, regardless of ownership.
      *     Ignored if null or if querySkuDetails is false.
      * @param moreSubsSkus additional SUBSCRIPTIONS skus to query information on, regardless of ownership.
-     *     Ignored if null or if querySkuDetails is false.
+     *     Ignored if querySkuDetails is false. If null, moreItemSkus are queried as
+     *     subscriptions too, as the versions of this method without moreSubsSkus always did.
      * @throws IabException if a problem occurs while refreshing the inventory.
      */
     public Inventory queryInventory(boolean querySkuDetails, List<String> moreItemSkus,
                                         List<String> moreSubsSkus) throws IabException {
+        return queryInventory(querySkuDetails, moreItemSkus, moreSubsSkus, null);
+    }
+
+    /**
+     * Queries the inventory as {@link #queryInventory(boolean, List, List)} does, and also
+     * reports every page of owned purchases as soon as it has been received and verified,
+     * long before the whole inventory is ready on accounts with many purchases.
+     *
+     * @param pageListener notified of every page, on the querying thread. With concurrent
+     *     queries (see {@link #setConcurrentInventoryQuery}), pages of products and
+     *     subscriptions may be reported from two threads at the same time. May be null.
+     * @throws IabException if a problem occurs while refreshing the inventory. Pages
+     *     reported before the problem have been verified, but the inventory is incomplete.
+     */
+    public Inventory queryInventory(boolean querySkuDetails, List<String> moreItemSkus,
+                                        List<String> moreSubsSkus,
+                                        OnPurchasesPageListener pageListener) throws IabException {
+        return queryInventory(null, querySkuDetails, moreItemSkus, moreSubsSkus, pageListener);
+    }
+
+    // Queries the inventory on behalf of an async operation (null if synchronous), which
+    // stops requesting pages and details once the operation is cancelled or times out
+    Inventory queryInventory(IabOperation op, final boolean querySkuDetails,
+                             List<String> moreItemSkus, List<String> moreSubsSkus,
+                             OnPurchasesPageListener pageListener) throws IabException {
         checkNotDisposed();
         checkSetupDone("queryInventory");
-        try {
-            Inventory inv = new Inventory();
-            int r = queryPurchases(inv, ITEM_TYPE_INAPP);
-            if (r != BILLING_RESPONSE_RESULT_OK) {
-                throw new IabException(r, "Error refreshing inventory (querying owned items).");
-            }
+        long start = System.nanoTime();
+
+        final List<InventoryBranch> branches = new ArrayList<InventoryBranch>();
+        branches.add(new InventoryBranch(op, ITEM_TYPE_INAPP, moreItemSkus, pageListener));
+        // if subscriptions are supported, then also query for subscriptions
+        if (mSubscriptionsSupported) {
+            // callers that don't tell subscriptions apart list them with the products
+            branches.add(new InventoryBranch(op, ITEM_TYPE_SUBS,
+                    (moreSubsSkus != null) ? moreSubsSkus : moreItemSkus, pageListener));
+        }
 
-            if (querySkuDetails) {
-                r = querySkuDetails(ITEM_TYPE_INAPP, inv, moreItemSkus);
-                if (r != BILLING_RESPONSE_RESULT_OK) {
-                    throw new IabException(r, "Error refreshing inventory (querying prices of items).");
-                }
+        final boolean concurrent = mConcurrentInventoryQuery;
+        IabParallel.forEach(mExecutor, branches.size(), concurrent ? branches.size() : 1,
+                new IabParallel.Task() {
+            public void run(int index) {
+                // when running one after the other, stop at the first failure
+                if (!concurrent && index > 0 && branches.get(index - 1).hasFailed()) return;
+                runInventoryBranch(branches.get(index), querySkuDetails);
             }
+        });
 
-            // if subscriptions are supported, then also query for subscriptions
-            if (mSubscriptionsSupported) {
-                r = queryPurchases(inv, ITEM_TYPE_SUBS);
-                if (r != BILLING_RESPONSE_RESULT_OK) {
-                    throw new IabException(r, "Error refreshing inventory (querying owned subscriptions).");
-                }
+        InventoryTimings timings = new InventoryTimings(concurrent);
+        for (InventoryBranch branch : branches) {
+            timings.setBranch(branch.mItemType, branch.mPurchasesNanos, branch.mDetailsNanos);
+        }
+        timings.mTotalNanos = System.nanoTime() - start;
+        mLastInventoryTimings = timings;
+        logDebug(timings.toString());
 
-                if (querySkuDetails) {
-                    r = querySkuDetails(ITEM_TYPE_SUBS, inv, moreItemSkus);
-                    if (r != BILLING_RESPONSE_RESULT_OK) {
-                        throw new IabException(r, "Error refreshing inventory (querying prices of subscriptions).");
-                    }
+        try {
+            Inventory inv = new Inventory();
+            for (InventoryBranch branch : branches) {
+                if (branch.mError instanceof RemoteException) throw (RemoteException) branch.mError;
+                if (branch.mError instanceof JSONException) throw (JSONException) branch.mError;
+                if (branch.mError instanceof RuntimeException) throw (RuntimeException) branch.mError;
+                if (branch.mResponse != BILLING_RESPONSE_RESULT_OK) {
+                    throw new IabException(branch.mResponse, branch.mMessage);
                 }
+                inv.addAll(branch.mInventory);
             }
-
+            // consumptions erase items from the published inventory: keep it apart from
+            // the one returned, which the caller may still be reading
+            mLatestInventory.set(inv.snapshot());
+            saveInventorySnapshot(inv);
             return inv;
         }
         catch (RemoteException e) {
@@ -578,6 +1431,76 @@ public class IabHelper {
         }
     }
 
+    // Queries the owned purchases and then, if requested, the SKU details of one item type
+    // into the branch's own inventory. Errors are recorded in the branch, as it may run
+    // on a worker thread.
+    void runInventoryBranch(InventoryBranch branch, boolean querySkuDetails) {
+        boolean subs = ITEM_TYPE_SUBS.equals(branch.mItemType);
+        try {
+            long start = System.nanoTime();
+            int r = queryPurchases(branch.mOperation, branch.mInventory, branch.mItemType,
+                    branch.mPageListener);
+            branch.mPurchasesNanos = System.nanoTime() - start;
+            if (r != BILLING_RESPONSE_RESULT_OK) {
+                branch.mResponse = r;
+                branch.mMessage = subs ? "Error refreshing inventory (querying owned subscriptions)."
+                        : "Error refreshing inventory (querying owned items).";
+                return;
+            }
+
+            if (querySkuDetails && isAborted(branch.mOperation)) {
+                branch.mResponse = getAbortedResponse(branch.mOperation);
+                branch.mMessage = "Inventory refresh aborted.";
+            }
+            else if (querySkuDetails) {
+                start = System.nanoTime();
+                r = querySkuDetails(branch.mItemType, branch.mInventory, branch.mMoreSkus);
+                branch.mDetailsNanos = System.nanoTime() - start;
+                if (r != BILLING_RESPONSE_RESULT_OK) {
+                    branch.mResponse = r;
+                    branch.mMessage = subs ? "Error refreshing inventory (querying prices of subscriptions)."
+                            : "Error refreshing inventory (querying prices of items).";
+                }
+            }
+        }
+        catch (RemoteException e) {
+            branch.mError = e;
+        }
+        catch (JSONException e) {
+            branch.mError = e;
+        }
+        catch (RuntimeException e) {
+            branch.mError = e;
+        }
+    }
+
+    // The part of an inventory query for one item type, and its outcome
+    static class InventoryBranch {
+        // The async operation of the query, or null if synchronous
+        final IabOperation mOperation;
+        final String mItemType;
+        final List<String> mMoreSkus;
+        final OnPurchasesPageListener mPageListener;
+        final Inventory mInventory = new Inventory();
+        int mResponse = BILLING_RESPONSE_RESULT_OK;
+        String mMessage;
+        Exception mError;
+        long mPurchasesNanos;
+        long mDetailsNanos;
+
+        InventoryBranch(IabOperation operation, String itemType, List<String> moreSkus,
+                        OnPurchasesPageListener pageListener) {
+            mOperation = operation;
+            mItemType = itemType;
+            mMoreSkus = moreSkus;
+            mPageListener = pageListener;
+        }
+
+        boolean hasFailed() {
+            return mError != null || mResponse != BILLING_RESPONSE_RESULT_OK;
+        }
+    }
+
     /**
      * Listener that notifies when an inventory query operation completes.
      */
@@ -585,10 +1508,25 @@ public class IabHelper {
         /**
          * Called to notify that an inventory query operation completed.
          *
-         * @param result The result of the operation.
-         * @param inv The inventory.
+         * @param result The result of the operation.
+         * @param inv The inventory.
+         */
+        public void onQueryInventoryFinished(IabResult result, Inventory inv);
+    }
+
+    /**
+     * Listener that notifies about the owned purchases of an inventory query while it is
+     * still in progress, one page of the getPurchases responses at a time.
+     */
+    public interface OnPurchasesPageListener {
+        /**
+         * Called when a page of owned purchases has been received and verified. Purchases
+         * that fail the signature verification are left out, as in the final inventory.
+         *
+         * @param itemType The type of the purchases (ITEM_TYPE_INAPP or ITEM_TYPE_SUBS).
+         * @param purchases The verified purchases of the page (possibly none).
          */
-        public void onQueryInventoryFinished(IabResult result, Inventory inv);
+        public void onPurchasesPage(String itemType, List<Purchase> purchases);
     }
 
 
@@ -596,53 +1534,358 @@ public class IabHelper {
      * Asynchronous wrapper for inventory query. This will perform an inventory
      * query as described in {@link #queryInventory}, but will do so asynchronously
      * and call back the specified listener upon completion. This method is safe to
-     * call from a UI thread.
+     * call from a UI thread. If another asynchronous operation is in progress, the
+     * query is queued and runs after it.
+     *
+     * @param querySkuDetails as in {@link #queryInventory}
+     * @param moreSkus as in {@link #queryInventory}
+     * @param listener The listener to notify when the refresh operation completes.
+     * @return A handle to cancel the query. Identical queries pending at the same time run
+     *     only once and share the same handle: cancelling it cancels all of them.
+     */
+    public IabOperation queryInventoryAsync(boolean querySkuDetails,
+                               List<String> moreSkus,
+                               QueryInventoryFinishedListener listener) {
+        return queryInventoryAsync(querySkuDetails, moreSkus, null, listener);
+    }
+
+    /**
+     * Streaming version of {@link #queryInventoryAsync(boolean, List, QueryInventoryFinishedListener)}:
+     * every page of owned purchases is delivered to pageListener as soon as it has been
+     * received and verified, so the first entitlements can be unlocked while later pages
+     * are still loading. The listener is called once all the pages (and SKU details, if
+     * requested) have been received, after the last page. All the callbacks are made on
+     * the thread that called this method.
      *
      * @param querySkuDetails as in {@link #queryInventory}
      * @param moreSkus as in {@link #queryInventory}
+     * @param pageListener The listener to notify of every page of owned purchases.
      * @param listener The listener to notify when the refresh operation completes.
+     * @return A handle to cancel the query.
      */
-    public void queryInventoryAsync(final boolean querySkuDetails,
-                               final List<String> moreSkus,
-                               final QueryInventoryFinishedListener listener) {
+    public IabOperation queryInventoryAsync(boolean querySkuDetails,
+                               List<String> moreSkus,
+                               OnPurchasesPageListener pageListener,
+                               QueryInventoryFinishedListener listener) {
         final Handler handler = new Handler();
         checkNotDisposed();
         checkSetupDone("queryInventory");
-        flagStartAsync("refresh inventory");
-        (new Thread(new Runnable() {
+        final InventoryQuery query;
+        synchronized (mInventoryQueries) {
+            // join an identical query that hasn't started yet, as long as nothing else has
+            // been scheduled after it (its result would miss the effects of that operation).
+            // A running query may have read its pages before the change that prompted this
+            // call, such as a purchase completed while it runs.
+            if (pageListener == null) {
+                for (InventoryQuery pending : mInventoryQueries) {
+                    if (pending.canJoin(querySkuDetails, moreSkus, mScheduledCount.get())) {
+                        pending.addListener(handler, listener);
+                        int coalesced = mCoalescedQueries.incrementAndGet();
+                        logDebug("Inventory refresh coalesced with a pending one ("
+                                + coalesced + " so far).");
+                        return pending.mOperation;
+                    }
+                }
+            }
+            IabOperation op = new IabOperation(this, OPERATION_REFRESH_INVENTORY, handler);
+            query = new InventoryQuery(op, querySkuDetails, moreSkus, pageListener,
+                    mScheduledCount.get() + 1);
+            query.addListener(handler, listener);
+            mInventoryQueries.add(query);
+            op.mAborter = new IabOperation.Aborter() {
+                public void abort(IabResult result) {
+                    finishInventoryQuery(query);
+                    deliverInventoryResult(query, result, null);
+                }
+            };
+        }
+        scheduleAsync(query.mOperation, new Runnable() {
+            public void run() {
+                startQueryInventory(handler, query);
+            }
+        });
+        return query.mOperation;
+    }
+
+    /**
+     * Returns how many calls to queryInventoryAsync didn't query the inventory themselves,
+     * because they were coalesced with an identical query that was already pending: they
+     * got its result instead. Streaming queries (with an {@link OnPurchasesPageListener})
+     * are never coalesced.
+     */
+    public int getCoalescedInventoryQueryCount() {
+        return mCoalescedQueries.get();
+    }
+
+    // Starts an inventory query on the executor once its turn has come (see queryInventoryAsync)
+    void startQueryInventory(final Handler handler, final InventoryQuery query) {
+        if (mDisposed) return;
+        // pages are posted to the handler, ahead of the final result
+        final OnPurchasesPageListener pageListener = query.mPageListener;
+        final OnPurchasesPageListener pagePoster = (pageListener == null) ? null
+                : new OnPurchasesPageListener() {
+            public void onPurchasesPage(final String itemType, final List<Purchase> purchases) {
+                // once cancelled or timed out, the listener has been told the query is over
+                if (mDisposed || query.mOperation.isAborted()) return;
+                handler.post(new Runnable() {
+                    public void run() {
+                        if (mDisposed || query.mOperation.isAborted()) return;
+                        pageListener.onPurchasesPage(itemType, purchases);
+                    }
+                });
+            }
+        };
+        boolean started = executeAsync(new Runnable() {
             public void run() {
                 IabResult result = new IabResult(BILLING_RESPONSE_RESULT_OK, "Inventory refresh successful.");
                 Inventory inv = null;
                 try {
-                    inv = queryInventory(querySkuDetails, moreSkus);
+                    inv = queryInventory(query.mOperation, query.mQuerySkuDetails, query.mMoreSkus,
+                            null, pagePoster);
                 }
                 catch (IabException ex) {
                     result = ex.getResult();
                 }
 
-                flagEndAsync();
+                // no more listeners can join once the next operation may start
+                finishInventoryQuery(query);
+                if (!endAsync(query.mOperation)) return;
+                deliverInventoryResult(query, result, inv);
+            }
+        });
+
+        if (!started) {
+            finishInventoryQuery(query);
+            if (!endAsync(query.mOperation)) return;
+            deliverInventoryResult(query, new IabResult(IABHELPER_ASYNC_REJECTED,
+                    "Can't refresh inventory now, too many operations pending."), null);
+        }
+    }
+
+    // Removes a query from the pending ones, so that no more listeners join it
+    void finishInventoryQuery(InventoryQuery query) {
+        synchronized (mInventoryQueries) {
+            mInventoryQueries.remove(query);
+        }
+    }
+
+    // Posts the result of a query to each of its listeners, on its own handler
+    void deliverInventoryResult(InventoryQuery query, final IabResult result, final Inventory inv) {
+        if (mDisposed) return;
+        for (int i = 0; i < query.mListeners.size(); i++) {
+            final QueryInventoryFinishedListener listener = query.mListeners.get(i);
+            if (listener == null) continue;
+            query.mHandlers.get(i).post(new Runnable() {
+                public void run() {
+                    listener.onQueryInventoryFinished(result, inv);
+                }
+            });
+        }
+    }
+
+    // An asynchronous inventory query and the listeners waiting for its result: the one
+    // that started it plus those coalesced into it. The listeners are guarded by
+    // mInventoryQueries and can only be added while the query is pending.
+    static class InventoryQuery {
+        // The operation, shared by the listeners that joined the query
+        final IabOperation mOperation;
+        final boolean mQuerySkuDetails;
+        final List<String> mMoreSkus;
+        final OnPurchasesPageListener mPageListener;
+        // The position of the query among the scheduled async operations
+        final int mScheduleIndex;
+        final List<Handler> mHandlers = new ArrayList<Handler>();
+        final List<QueryInventoryFinishedListener> mListeners =
+                new ArrayList<QueryInventoryFinishedListener>();
+
+        InventoryQuery(IabOperation operation, boolean querySkuDetails, List<String> moreSkus,
+                       OnPurchasesPageListener pageListener, int scheduleIndex) {
+            mOperation = operation;
+            mQuerySkuDetails = querySkuDetails;
+            mMoreSkus = (moreSkus != null) ? new ArrayList<String>(moreSkus) : null;
+            mPageListener = pageListener;
+            mScheduleIndex = scheduleIndex;
+        }
+
+        void addListener(Handler handler, QueryInventoryFinishedListener listener) {
+            mHandlers.add(handler);
+            mListeners.add(listener);
+        }
+
+        // Would a query with these parameters get the same result? scheduledCount is the
+        // number of operations scheduled so far
+        boolean canJoin(boolean querySkuDetails, List<String> moreSkus, int scheduledCount) {
+            return mOperation.isQueued()
+                    && mPageListener == null
+                    && mQuerySkuDetails == querySkuDetails
+                    && (mMoreSkus == null ? moreSkus == null : mMoreSkus.equals(moreSkus))
+                    && mScheduleIndex == scheduledCount;
+        }
+    }
+
+    public IabOperation queryInventoryAsync(QueryInventoryFinishedListener listener) {
+        return queryInventoryAsync(true, null, listener);
+    }
+
+    public IabOperation queryInventoryAsync(boolean querySkuDetails, QueryInventoryFinishedListener listener) {
+        return queryInventoryAsync(querySkuDetails, null, listener);
+    }
+
+
+    /**
+     * Loads the inventory saved by a previous session (see {@link #setInventorySnapshotFile}).
+     * The signatures of its purchases are verified again, and purchases that fail the
+     * verification are left out. This method reads from disk; do not call it from
+     * the UI thread. For that, use {@link #loadInventorySnapshotAsync}.
+     *
+     * @return The saved inventory, marked as stale (see {@link Inventory#isStale}), or null
+     *     if there is no usable snapshot.
+     */
+    public Inventory loadInventorySnapshot() {
+        checkNotDisposed();
+        File file = mInventorySnapshotFile;
+        if (file == null) return null;
+
+        Inventory inv;
+        try {
+            synchronized (mSnapshotLock) {
+                inv = InventorySnapshot.read(file);
+            }
+        }
+        catch (IOException e) {
+            logWarn("Can't read inventory snapshot: " + e);
+            return null;
+        }
+        catch (JSONException e) {
+            logWarn("Can't parse inventory snapshot: " + e);
+            return null;
+        }
+        catch (RuntimeException e) {
+            // whatever the corruption, the app must still get its listener called
+            logWarn("Can't read inventory snapshot: " + e);
+            return null;
+        }
+        if (inv == null) return null;
+
+        for (Purchase p : inv.getAllPurchases()) {
+            long start = startMetric(IabMetrics.VERIFY_SIGNATURE);
+            boolean verified = Security.verifyPurchase(mSignatureBase64, p.getOriginalJson(), p.getSignature());
+            finishMetric(IabMetrics.VERIFY_SIGNATURE,
+                    verified ? BILLING_RESPONSE_RESULT_OK : IABHELPER_VERIFICATION_FAILED, start);
+            if (!verified) {
+                logWarn("Purchase signature verification **FAILED** in snapshot. Not adding item.");
+                inv.erasePurchase(p.getSku());
+            }
+        }
+        inv.mStale = true;
+        logDebug("Inventory snapshot loaded: " + inv.getAllOwnedSkus().size() + " owned item(s).");
+        return inv;
+    }
 
-                final IabResult result_f = result;
-                final Inventory inv_f = inv;
+    /**
+     * Asynchronous wrapper for {@link #loadInventorySnapshot}. It doesn't need the helper
+     * to be set up, and it doesn't wait for other asynchronous operations, so you can call
+     * it right after creating the helper to unlock content while the live inventory is
+     * being queried. This method is safe to call from a UI thread.
+     *
+     * @param listener The listener to notify with the stale inventory, or with
+     *     {@link #IABHELPER_NO_SNAPSHOT} if there is none.
+     */
+    public void loadInventorySnapshotAsync(final QueryInventoryFinishedListener listener) {
+        final Handler handler = new Handler();
+        checkNotDisposed();
+        boolean started = executeAsync(new Runnable() {
+            public void run() {
+                final Inventory inv = mDisposed ? null : loadInventorySnapshot();
+                final IabResult result = (inv != null)
+                        ? new IabResult(BILLING_RESPONSE_RESULT_OK, "Inventory snapshot loaded.")
+                        : new IabResult(IABHELPER_NO_SNAPSHOT, "No inventory snapshot.");
                 if (!mDisposed && listener != null) {
                     handler.post(new Runnable() {
                         public void run() {
-                            listener.onQueryInventoryFinished(result_f, inv_f);
+                            listener.onQueryInventoryFinished(result, inv);
                         }
                     });
                 }
             }
-        })).start();
+        });
+
+        if (!started && listener != null) {
+            listener.onQueryInventoryFinished(new IabResult(IABHELPER_ASYNC_REJECTED,
+                    "Can't load inventory snapshot now, too many operations pending."), null);
+        }
     }
 
-    public void queryInventoryAsync(QueryInventoryFinishedListener listener) {
-        queryInventoryAsync(true, null, listener);
+    // Saves the inventory as the new snapshot, if enabled
+    void saveInventorySnapshot(Inventory inv) {
+        File file = mInventorySnapshotFile;
+        if (file == null) return;
+        try {
+            synchronized (mSnapshotLock) {
+                InventorySnapshot.write(file, inv);
+            }
+            logDebug("Inventory snapshot saved.");
+        }
+        catch (IOException e) {
+            logWarn("Can't save inventory snapshot: " + e);
+        }
     }
 
-    public void queryInventoryAsync(boolean querySkuDetails, QueryInventoryFinishedListener listener) {
-        queryInventoryAsync(querySkuDetails, null, listener);
+    // Removes a consumed item from the snapshot, if enabled. The rewrite is left to the
+    // executor, off the consumption path, and covers every item consumed until it starts,
+    // so that a batch of consumptions rewrites the file once.
+    void removeFromInventorySnapshot(String sku) {
+        if (mInventorySnapshotFile == null) return;
+        mSnapshotRemovals.add(sku);
+        if (!mSnapshotRewriteScheduled.compareAndSet(false, true)) return;
+        Runnable rewrite = new Runnable() {
+            public void run() {
+                rewriteInventorySnapshot();
+            }
+        };
+        try {
+            mExecutor.execute(rewrite);
+        }
+        catch (RejectedExecutionException e) {
+            // no room: better late on this thread than never
+            rewrite.run();
+        }
     }
 
+    // Removes the pending consumed items from the snapshot in a single rewrite
+    void rewriteInventorySnapshot() {
+        // later removals schedule another rewrite
+        mSnapshotRewriteScheduled.set(false);
+        List<String> skus;
+        synchronized (mSnapshotRemovals) {
+            skus = new ArrayList<String>(mSnapshotRemovals);
+            mSnapshotRemovals.clear();
+        }
+        File file = mInventorySnapshotFile;
+        if (file == null || skus.isEmpty()) return;
+        try {
+            synchronized (mSnapshotLock) {
+                Inventory inv = InventorySnapshot.read(file);
+                if (inv == null) return;
+                boolean changed = false;
+                for (String sku : skus) {
+                    if (!inv.hasPurchase(sku)) continue;
+                    inv.erasePurchase(sku);
+                    changed = true;
+                }
+                if (changed) InventorySnapshot.write(file, inv);
+            }
+        }
+        catch (IOException e) {
+            logWarn("Can't update inventory snapshot: " + e);
+        }
+        catch (JSONException e) {
+            logWarn("Can't update inventory snapshot: " + e);
+        }
+        catch (RuntimeException e) {
+            logWarn("Can't update inventory snapshot: " + e);
+        }
+    }
 
     /**
      * Consumes a given in-app product. Consuming can only be done on an item
@@ -672,20 +1915,176 @@ public class IabHelper {
             }
 
             logDebug("Consuming sku: " + sku + ", token: " + token);
-            int response = mService.consumePurchase(3, mContext.getPackageName(), token);
+            long start = startMetric(IabMetrics.CONSUME_PURCHASE);
+            int response;
+            try {
+                response = getService().consumePurchase(3, mContext.getPackageName(), token);
+            }
+            catch (RemoteException e) {
+                finishMetric(IabMetrics.CONSUME_PURCHASE, IABHELPER_REMOTE_EXCEPTION, start);
+                throw e;
+            }
+            finishMetric(IabMetrics.CONSUME_PURCHASE, response, start);
             if (response == BILLING_RESPONSE_RESULT_OK) {
                logDebug("Successfully consumed sku: " + sku);
+               Inventory latest = mLatestInventory.get();
+               if (latest != null) latest.erasePurchase(sku);
+               removeFromInventorySnapshot(sku);
+               settleJournaledConsume(itemInfo);
             }
             else {
                logDebug("Error consuming consuming sku " + sku + ". " + getResponseDesc(response));
+               if (isTransientConsumeFailure(response)) journalConsume(itemInfo);
+               else settleJournaledConsume(itemInfo);
                throw new IabException(response, "Error consuming sku " + sku);
             }
         }
         catch (RemoteException e) {
+            journalConsume(itemInfo);
             throw new IabException(IABHELPER_REMOTE_EXCEPTION, "Remote exception while consuming. PurchaseInfo: " + itemInfo, e);
         }
     }
 
+    // Is it worth retrying a consumption that failed with this response?
+    static boolean isTransientConsumeFailure(int response) {
+        return response == IABHELPER_REMOTE_EXCEPTION || response == BILLING_RESPONSE_RESULT_ERROR;
+    }
+
+    // Adds a purchase to the consume journal, if enabled, and schedules its retry
+    void journalConsume(Purchase purchase) {
+        ConsumeJournal journal = mConsumeJournal;
+        if (journal == null) return;
+        try {
+            journal.addPending(purchase);
+        }
+        catch (IOException e) {
+            logWarn("Can't update consume journal: " + e);
+        }
+        scheduleConsumeRetry(false);
+    }
+
+    // Removes a purchase from the consume journal, if enabled and it is there
+    void settleJournaledConsume(Purchase purchase) {
+        ConsumeJournal journal = mConsumeJournal;
+        if (journal == null) return;
+        try {
+            journal.settle(purchase);
+        }
+        catch (IOException e) {
+            logWarn("Can't update consume journal: " + e);
+        }
+    }
+
+    // Schedules a pass over the consume journal, right away or after the next backoff
+    // delay, unless one is already scheduled
+    void scheduleConsumeRetry(boolean immediately) {
+        final Handler handler = mConsumeRetryHandler;
+        if (handler == null || mDisposed || !mConsumeRetryScheduled.compareAndSet(false, true)) return;
+        long delay = immediately ? 0 : mConsumeRetryBackoff.nextDelayMillis();
+        logDebug("Retrying pending consumptions in " + delay + " ms.");
+        handler.postDelayed(new Runnable() {
+            public void run() {
+                if (mDisposed) return;
+                // failures from here on schedule the next pass
+                mConsumeRetryScheduled.set(false);
+                // queued like any other operation, so that it never races a consumeAsync
+                // of the same purchase
+                final IabOperation op = new IabOperation(IabHelper.this,
+                        OPERATION_RETRY_CONSUMES, handler);
+                op.mAborter = new IabOperation.Aborter() {
+                    public void abort(IabResult result) {
+                        // whatever hasn't settled is still in the journal
+                        scheduleConsumeRetry(false);
+                    }
+                };
+                scheduleAsync(op, new Runnable() {
+                    public void run() {
+                        startConsumeRetry(op, handler);
+                    }
+                });
+            }
+        }, delay);
+    }
+
+    void startConsumeRetry(final IabOperation op, final Handler handler) {
+        if (mDisposed) return;
+        boolean started = executeAsync(new Runnable() {
+            public void run() {
+                try {
+                    retryJournaledConsumes(op, handler);
+                }
+                finally {
+                    endAsync(op);
+                }
+            }
+        });
+
+        if (!started && endAsync(op)) scheduleConsumeRetry(false);
+    }
+
+    // Consumes the purchases of the journal, and notifies the retry listener of those that
+    // settle. Runs on the executor, on behalf of op.
+    void retryJournaledConsumes(IabOperation op, Handler handler) {
+        ConsumeJournal journal = mConsumeJournal;
+        if (journal == null || mDisposed) return;
+        if (!mSetupDone || mService == null) {
+            // not connected (yet): try again later
+            scheduleConsumeRetry(false);
+            return;
+        }
+
+        List<Purchase> pending;
+        try {
+            pending = journal.getPending();
+        }
+        catch (IOException e) {
+            // maybe a passing I/O error: try again later, like a failed consumption
+            logWarn("Can't read consume journal: " + e);
+            scheduleConsumeRetry(false);
+            return;
+        }
+        if (!pending.isEmpty()) logDebug("Retrying " + pending.size() + " pending consumption(s).");
+
+        boolean settled = true;
+        for (final Purchase purchase : pending) {
+            // aborted: the next pass has been scheduled
+            if (mDisposed || op.isAborted()) return;
+            IabResult result;
+            try {
+                consume(purchase);
+                result = new IabResult(BILLING_RESPONSE_RESULT_OK, "Successful consume of sku " + purchase.getSku());
+            }
+            catch (IabException ex) {
+                result = ex.getResult();
+                // still pending: consume() has scheduled another pass
+                if (isTransientConsumeFailure(result.getResponse())) {
+                    settled = false;
+                    continue;
+                }
+                if (result.getResponse() == BILLING_RESPONSE_RESULT_ITEM_NOT_OWNED) {
+                    // the call that failed with a RemoteException went through after all
+                    logDebug("Pending consumption of sku " + purchase.getSku() + " had already succeeded.");
+                    Inventory latest = mLatestInventory.get();
+                    if (latest != null) latest.erasePurchase(purchase.getSku());
+                    removeFromInventorySnapshot(purchase.getSku());
+                    result = new IabResult(BILLING_RESPONSE_RESULT_OK,
+                            "Successful consume of sku " + purchase.getSku() + " (already consumed)");
+                }
+            }
+
+            final OnConsumeFinishedListener listener = mConsumeRetryListener;
+            if (listener != null && !mDisposed) {
+                final IabResult finalResult = result;
+                handler.post(new Runnable() {
+                    public void run() {
+                        listener.onConsumeFinished(purchase, finalResult);
+                    }
+                });
+            }
+        }
+        if (settled) mConsumeRetryBackoff.reset();
+    }
+
     /**
      * Callback that notifies when a consumption operation finishes.
      */
@@ -720,24 +2119,30 @@ public class IabHelper {
      *
      * @param purchase The purchase to be consumed.
      * @param listener The listener to notify when the consumption operation finishes.
+     * @return A handle to cancel the consumption. Once the purchase has been sent to the
+     *     billing service, cancelling it only releases the queue: the listener gets the
+     *     actual result when it comes.
      */
-    public void consumeAsync(Purchase purchase, OnConsumeFinishedListener listener) {
+    public IabOperation consumeAsync(Purchase purchase, OnConsumeFinishedListener listener) {
         checkNotDisposed();
         checkSetupDone("consume");
         List<Purchase> purchases = new ArrayList<Purchase>();
         purchases.add(purchase);
-        consumeAsyncInternal(purchases, listener, null);
+        return consumeAsyncInternal(purchases, listener, null);
     }
 
     /**
      * Same as {@link consumeAsync}, but for multiple items at once.
      * @param purchases The list of PurchaseInfo objects representing the purchases to consume.
      * @param listener The listener to notify when the consumption operation finishes.
+     * @return A handle to cancel the consumption. The purchases already sent to the
+     *     billing service when it is cancelled are reported with their actual results,
+     *     the others as cancelled.
      */
-    public void consumeAsync(List<Purchase> purchases, OnConsumeMultiFinishedListener listener) {
+    public IabOperation consumeAsync(List<Purchase> purchases, OnConsumeMultiFinishedListener listener) {
         checkNotDisposed();
         checkSetupDone("consume");
-        consumeAsyncInternal(purchases, null, listener);
+        return consumeAsyncInternal(purchases, null, listener);
     }
 
     /**
@@ -761,7 +2166,11 @@ public class IabHelper {
                                    "-1007:Missing token/" +
                                    "-1008:Unknown error/" +
                                    "-1009:Subscriptions not available/" +
-                                   "-1010:Invalid consumption attempt").split("/");
+                                   "-1010:Invalid consumption attempt/" +
+                                   "-1011:Async operation rejected/" +
+                                   "-1012:No inventory snapshot available/" +
+                                   "-1013:Operation timed out/" +
+                                   "-1014:Operation cancelled").split("/");
 
         if (code <= IABHELPER_ERROR_BASE) {
             int index = IABHELPER_ERROR_BASE - code;
@@ -815,22 +2224,110 @@ public class IabHelper {
         }
     }
 
-    void flagStartAsync(String operation) {
-        if (mAsyncInProgress) throw new IllegalStateException("Can't start async operation (" +
-                operation + ") because another async operation(" + mAsyncOperation + ") is in progress.");
-        mAsyncOperation = operation;
-        mAsyncInProgress = true;
-        logDebug("Starting async operation: " + operation);
+    // Starts an async operation, or queues it if another one is in progress. The operation
+    // must call endAsync() when it's done, which starts the next queued one.
+    void scheduleAsync(final IabOperation op, final Runnable start) {
+        mScheduledCount.incrementAndGet();
+        if (mScheduler.isBusy()) {
+            logDebug("Queueing async operation: " + op.mName + " (in progress: "
+                    + mScheduler.getCurrentOperation() + ")");
+        }
+        else {
+            logDebug("Starting async operation: " + op.mName);
+        }
+        mScheduler.schedule(op.mName, op.mHandler, new Runnable() {
+            public void run() {
+                if (!op.start()) {
+                    // cancelled while queued: its listener has been notified already
+                    mScheduler.finish();
+                    return;
+                }
+                scheduleTimeout(op);
+                startWhenConnected(op.mHandler, new Runnable() {
+                    public void run() {
+                        if (!op.isDone()) start.run();
+                    }
+                });
+            }
+        });
+    }
+
+    // Ends the running async operation and starts the next queued one. Returns false if the
+    // operation was cancelled or timed out in the meantime, in which case it has already
+    // released its place and notified its listener: its result must be dropped.
+    boolean endAsync(IabOperation op) {
+        if (!op.complete()) {
+            logDebug("Dropping the result of async operation: " + op.mName);
+            return false;
+        }
+        cancelTimeout(op);
+        logDebug("Ending async operation: " + op.mName);
+        mScheduler.finish();
+        return true;
+    }
+
+    // Cancels an async operation or makes it time out (state is IabOperation.CANCELLED or
+    // TIMED_OUT), releasing its place and notifying its listener. Returns false if the
+    // operation had already ended.
+    boolean abortAsync(IabOperation op, int state) {
+        int previous = op.abort(state);
+        if (previous < 0) return false;
+        cancelTimeout(op);
+        if (mDisposed) return true;
+
+        boolean timedOut = (state == IabOperation.TIMED_OUT);
+        ConcurrentHashMap<String, AtomicInteger> counts = timedOut ? mTimeoutCounts : mCancelCounts;
+        AtomicInteger count = counts.get(op.mName);
+        if (count == null) {
+            counts.putIfAbsent(op.mName, new AtomicInteger());
+            count = counts.get(op.mName);
+        }
+        count.incrementAndGet();
+        logWarn("Async operation " + (timedOut ? "timed out" : "cancelled") + ": " + op.mName);
+
+        // a queued operation releases its place when its turn comes
+        if (previous == IabOperation.RUNNING) mScheduler.finish();
+        IabResult result = timedOut
+                ? new IabResult(IABHELPER_OPERATION_TIMED_OUT, "Operation timed out: " + op.mName)
+                : new IabResult(IABHELPER_OPERATION_CANCELLED, "Operation cancelled: " + op.mName);
+        if (op.mAborter != null) op.mAborter.abort(result);
+        return true;
+    }
+
+    // Starts timing the deadline of an operation that has just started
+    void scheduleTimeout(final IabOperation op) {
+        Long timeout = mOperationTimeouts.get(op.mName);
+        long timeoutMillis = (timeout != null) ? timeout.longValue() : mDefaultOperationTimeoutMillis;
+        if (timeoutMillis <= 0) return;
+        Runnable fire = new Runnable() {
+            public void run() {
+                abortAsync(op, IabOperation.TIMED_OUT);
+            }
+        };
+        synchronized (op) {
+            op.mTimeout = fire;
+        }
+        op.mHandler.postDelayed(fire, timeoutMillis);
     }
 
-    void flagEndAsync() {
-        logDebug("Ending async operation: " + mAsyncOperation);
-        mAsyncOperation = "";
-        mAsyncInProgress = false;
+    void cancelTimeout(IabOperation op) {
+        Runnable fire;
+        synchronized (op) {
+            fire = op.mTimeout;
+            op.mTimeout = null;
+        }
+        if (fire != null) op.mHandler.removeCallbacks(fire);
     }
 
 
     int queryPurchases(Inventory inv, String itemType) throws JSONException, RemoteException {
+        return queryPurchases(null, inv, itemType, null);
+    }
+
+    // Queries the owned purchases of a type into inv, reporting every page to pageListener (if
+    // not null). Stops before the next page once op (if not null) is cancelled or times out.
+    int queryPurchases(IabOperation op, Inventory inv, String itemType,
+                       OnPurchasesPageListener pageListener) throws JSONException, RemoteException {
         // Query purchases
         logDebug("Querying owned items, item type: " + itemType);
         logDebug("Package name: " + mContext.getPackageName());
@@ -838,11 +2335,24 @@ public class IabHelper {
         String continueToken = null;
 
         do {
+            if (isAborted(op)) {
+                logDebug("Inventory refresh aborted: not querying more owned items.");
+                return getAbortedResponse(op);
+            }
             logDebug("Calling getPurchases with continuation token: " + continueToken);
-            Bundle ownedItems = mService.getPurchases(3, mContext.getPackageName(),
-                    itemType, continueToken);
+            long start = startMetric(IabMetrics.GET_PURCHASES);
+            Bundle ownedItems;
+            try {
+                ownedItems = getService().getPurchases(3, mContext.getPackageName(),
+                        itemType, continueToken);
+            }
+            catch (RemoteException e) {
+                finishMetric(IabMetrics.GET_PURCHASES, IABHELPER_REMOTE_EXCEPTION, start);
+                throw e;
+            }
 
             int response = getResponseCodeFromBundle(ownedItems);
+            finishMetric(IabMetrics.GET_PURCHASES, response, start);
             logDebug("Owned items response: " + String.valueOf(response));
             if (response != BILLING_RESPONSE_RESULT_OK) {
                 logDebug("getPurchases() failed: " + getResponseDesc(response));
@@ -862,11 +2372,23 @@ public class IabHelper {
             ArrayList<String> signatureList = ownedItems.getStringArrayList(
                         RESPONSE_INAPP_SIGNATURE_LIST);
 
+            long verifyStart = startMetric(IabMetrics.VERIFY_PAGE);
+            boolean[] verified = Security.verifyPurchases(mSignatureBase64,
+                    purchaseDataList, signatureList, mExecutor, mVerificationParallelism);
+            int verifyResponse = BILLING_RESPONSE_RESULT_OK;
+            for (boolean v : verified) {
+                if (!v) {
+                    verifyResponse = IABHELPER_VERIFICATION_FAILED;
+                    break;
+                }
+            }
+            finishMetric(IabMetrics.VERIFY_PAGE, verifyResponse, verifyStart);
+            List<Purchase> page = new ArrayList<Purchase>(purchaseDataList.size());
             for (int i = 0; i < purchaseDataList.size(); ++i) {
                 String purchaseData = purchaseDataList.get(i);
                 String signature = signatureList.get(i);
                 String sku = ownedSkus.get(i);
-                if (Security.verifyPurchase(mSignatureBase64, purchaseData, signature)) {
+                if (verified[i]) {
                     logDebug("Sku is owned: " + sku);
                     Purchase purchase = new Purchase(itemType, purchaseData, signature);
 
@@ -875,8 +2397,7 @@ public class IabHelper {
                         logDebug("Purchase data: " + purchaseData);
                     }
 
-                    // Record ownership and token
-                    inv.addPurchase(purchase);
+                    page.add(purchase);
                 }
                 else {
                     logWarn("Purchase signature verification **FAILED**. Not adding item.");
@@ -886,6 +2407,10 @@ public class IabHelper {
                 }
             }
 
+            // Record ownership and tokens
+            inv.addPurchases(page);
+            if (pageListener != null) pageListener.onPurchasesPage(itemType, Collections.unmodifiableList(page));
+
             continueToken = ownedItems.getString(INAPP_CONTINUATION_TOKEN);
             logDebug("Continuation token: " + continueToken);
         } while (!TextUtils.isEmpty(continueToken));
@@ -893,88 +2418,285 @@ public class IabHelper {
         return verificationFailed ? IABHELPER_VERIFICATION_FAILED : BILLING_RESPONSE_RESULT_OK;
     }
 
+    // Has the async operation (if not null) been cancelled or timed out?
+    static boolean isAborted(IabOperation op) {
+        return op != null && op.isAborted();
+    }
+
+    // The response of the requests stopped because their operation was aborted
+    static int getAbortedResponse(IabOperation op) {
+        return op.isTimedOut() ? IABHELPER_OPERATION_TIMED_OUT : IABHELPER_OPERATION_CANCELLED;
+    }
+
     int querySkuDetails(String itemType, Inventory inv, List<String> moreSkus)
                                 throws RemoteException, JSONException {
-        logDebug("Querying SKU details.");
-        ArrayList<String> skuList = new ArrayList<String>();
-        skuList.addAll(inv.getAllOwnedSkus(itemType));
-        if (moreSkus != null) {
-            for (String sku : moreSkus) {
-                if (!skuList.contains(sku)) {
-                    skuList.add(sku);
-                }
+        List<SkuDetailsRequest> requests = new ArrayList<SkuDetailsRequest>();
+        addSkuDetailsRequests(requests, itemType, inv, moreSkus);
+        SkuDetailsRequest failed = querySkuDetails(inv, requests);
+        return failed != null ? failed.mResponse : BILLING_RESPONSE_RESULT_OK;
+    }
+
+    // Adds the getSkuDetails requests needed for the owned SKUs of the given type plus
+    // moreSkus, without duplicates and in chunks of at most GET_SKU_DETAILS_MAX_SKUS
+    void addSkuDetailsRequests(List<SkuDetailsRequest> requests, String itemType,
+                               Inventory inv, List<String> moreSkus) {
+        Set<String> skus = new LinkedHashSet<String>(inv.getAllOwnedSkus(itemType));
+        if (moreSkus != null) skus.addAll(moreSkus);
+
+        if (skus.size() == 0) {
+            logDebug("queryPrices: nothing to do because there are no SKUs of type " + itemType + ".");
+            return;
+        }
+
+        ArrayList<String> chunk = null;
+        for (String sku : skus) {
+            if (chunk == null || chunk.size() == GET_SKU_DETAILS_MAX_SKUS) {
+                chunk = new ArrayList<String>(Math.min(GET_SKU_DETAILS_MAX_SKUS, skus.size()));
+                requests.add(new SkuDetailsRequest(itemType, chunk));
             }
+            chunk.add(sku);
         }
+    }
 
-        if (skuList.size() == 0) {
-            logDebug("queryPrices: nothing to do because there are no SKUs.");
-            return BILLING_RESPONSE_RESULT_OK;
+    // Runs the getSkuDetails requests, up to mSkuDetailsParallelism at a time, and adds the
+    // details to the inventory. Returns the first request that failed, or null on success.
+    SkuDetailsRequest querySkuDetails(Inventory inv, final List<SkuDetailsRequest> requests)
+                                throws RemoteException, JSONException {
+        logDebug("Querying SKU details: " + requests.size() + " request(s).");
+        IabParallel.forEach(mExecutor, requests.size(), mSkuDetailsParallelism, new IabParallel.Task() {
+            public void run(int index) {
+                runSkuDetailsRequest(requests.get(index));
+            }
+        });
+
+        for (SkuDetailsRequest request : requests) {
+            if (request.mError instanceof RemoteException) throw (RemoteException) request.mError;
+            if (request.mError instanceof JSONException) throw (JSONException) request.mError;
+            if (request.mError instanceof RuntimeException) throw (RuntimeException) request.mError;
+            if (request.mResponse != BILLING_RESPONSE_RESULT_OK) return request;
+        }
+        List<SkuDetails> details = new ArrayList<SkuDetails>();
+        for (SkuDetailsRequest request : requests) {
+            details.addAll(request.mDetails);
         }
+        inv.addAllSkuDetails(details);
+        return null;
+    }
 
-        Bundle querySkus = new Bundle();
-        querySkus.putStringArrayList(GET_SKU_DETAILS_ITEM_LIST, skuList);
-        Bundle skuDetails = mService.getSkuDetails(3, mContext.getPackageName(),
-                itemType, querySkus);
+    // Sends a single getSkuDetails request and parses its response. Errors are
+    // recorded in the request, as it may run on a worker thread.
+    void runSkuDetailsRequest(SkuDetailsRequest request) {
+        try {
+            Bundle querySkus = new Bundle();
+            querySkus.putStringArrayList(GET_SKU_DETAILS_ITEM_LIST, request.mSkus);
+            long start = startMetric(IabMetrics.GET_SKU_DETAILS);
+            Bundle skuDetails;
+            try {
+                skuDetails = getService().getSkuDetails(3, mContext.getPackageName(),
+                        request.mItemType, querySkus);
+            }
+            catch (RemoteException e) {
+                finishMetric(IabMetrics.GET_SKU_DETAILS, IABHELPER_REMOTE_EXCEPTION, start);
+                throw e;
+            }
 
-        if (!skuDetails.containsKey(RESPONSE_GET_SKU_DETAILS_LIST)) {
-            int response = getResponseCodeFromBundle(skuDetails);
-            if (response != BILLING_RESPONSE_RESULT_OK) {
-                logDebug("getSkuDetails() failed: " + getResponseDesc(response));
-                return response;
+            if (!skuDetails.containsKey(RESPONSE_GET_SKU_DETAILS_LIST)) {
+                int response = getResponseCodeFromBundle(skuDetails);
+                if (response != BILLING_RESPONSE_RESULT_OK) {
+                    logDebug("getSkuDetails() failed: " + getResponseDesc(response));
+                    request.mResponse = response;
+                }
+                else {
+                    logError("getSkuDetails() returned a bundle with neither an error nor a detail list.");
+                    request.mResponse = IABHELPER_BAD_RESPONSE;
+                }
+                finishMetric(IabMetrics.GET_SKU_DETAILS, request.mResponse, start);
+                return;
             }
-            else {
-                logError("getSkuDetails() returned a bundle with neither an error nor a detail list.");
-                return IABHELPER_BAD_RESPONSE;
+            finishMetric(IabMetrics.GET_SKU_DETAILS, BILLING_RESPONSE_RESULT_OK, start);
+
+            ArrayList<String> responseList = skuDetails.getStringArrayList(
+                    RESPONSE_GET_SKU_DETAILS_LIST);
+
+            for (String thisResponse : responseList) {
+                SkuDetails d = new SkuDetails(request.mItemType, thisResponse);
+                logDebug("Got sku details: " + d);
+                request.mDetails.add(d);
             }
         }
+        catch (RemoteException e) {
+            request.mError = e;
+        }
+        catch (JSONException e) {
+            request.mError = e;
+        }
+        catch (RuntimeException e) {
+            request.mError = e;
+        }
+    }
 
-        ArrayList<String> responseList = skuDetails.getStringArrayList(
-                RESPONSE_GET_SKU_DETAILS_LIST);
-
-        for (String thisResponse : responseList) {
-            SkuDetails d = new SkuDetails(itemType, thisResponse);
-            logDebug("Got sku details: " + d);
-            inv.addSkuDetails(d);
+    // A getSkuDetails request for a chunk of SKUs of the same type, and its outcome
+    static class SkuDetailsRequest {
+        final String mItemType;
+        final ArrayList<String> mSkus;
+        final List<SkuDetails> mDetails = new ArrayList<SkuDetails>();
+        int mResponse = BILLING_RESPONSE_RESULT_OK;
+        Exception mError;
+
+        SkuDetailsRequest(String itemType, ArrayList<String> skus) {
+            mItemType = itemType;
+            mSkus = skus;
         }
-        return BILLING_RESPONSE_RESULT_OK;
     }
 
 
-    void consumeAsyncInternal(final List<Purchase> purchases,
+    IabOperation consumeAsyncInternal(final List<Purchase> purchases,
                               final OnConsumeFinishedListener singleListener,
                               final OnConsumeMultiFinishedListener multiListener) {
         final Handler handler = new Handler();
-        flagStartAsync("consume");
-        (new Thread(new Runnable() {
+        final IabOperation op = new IabOperation(this, OPERATION_CONSUME, handler);
+        // Set by whoever reports the results: the aborter if the consumption hadn't
+        // started, or else the consumption itself, which must report the items it
+        // consumed even if it is aborted (they are gone from Google Play)
+        final AtomicBoolean reporting = new AtomicBoolean();
+        op.mAborter = new IabOperation.Aborter() {
+            public void abort(IabResult result) {
+                if (!reporting.compareAndSet(false, true)) return;
+                List<IabResult> results = new ArrayList<IabResult>();
+                for (int i = 0; i < purchases.size(); i++) results.add(result);
+                postConsumeResults(handler, purchases, results, singleListener, multiListener);
+            }
+        };
+        scheduleAsync(op, new Runnable() {
             public void run() {
-                final List<IabResult> results = new ArrayList<IabResult>();
-                for (Purchase purchase : purchases) {
-                    try {
-                        consume(purchase);
-                        results.add(new IabResult(BILLING_RESPONSE_RESULT_OK, "Successful consume of sku " + purchase.getSku()));
-                    }
-                    catch (IabException ex) {
-                        results.add(ex.getResult());
-                    }
+                startConsume(op, reporting, handler, purchases, singleListener, multiListener);
+            }
+        });
+        return op;
+    }
+
+    // Posts the results of a consumption to its listener
+    void postConsumeResults(Handler handler, final List<Purchase> purchases,
+                            final List<IabResult> results,
+                            final OnConsumeFinishedListener singleListener,
+                            final OnConsumeMultiFinishedListener multiListener) {
+        if (!mDisposed && singleListener != null) {
+            handler.post(new Runnable() {
+                public void run() {
+                    singleListener.onConsumeFinished(purchases.get(0), results.get(0));
+                }
+            });
+        }
+        if (!mDisposed && multiListener != null) {
+            handler.post(new Runnable() {
+                public void run() {
+                    multiListener.onConsumeMultiFinished(purchases, results);
                 }
+            });
+        }
+    }
 
-                flagEndAsync();
-                if (!mDisposed && singleListener != null) {
-                    handler.post(new Runnable() {
-                        public void run() {
-                            singleListener.onConsumeFinished(purchases.get(0), results.get(0));
-                        }
-                    });
+    // Starts a consumption on the executor once its turn has come (see consumeAsyncInternal)
+    void startConsume(final IabOperation op, final AtomicBoolean reporting, final Handler handler,
+                      final List<Purchase> purchases,
+                      final OnConsumeFinishedListener singleListener,
+                      final OnConsumeMultiFinishedListener multiListener) {
+        if (mDisposed) return;
+        boolean started = executeAsync(new Runnable() {
+            public void run() {
+                // aborted before it started: the aborter has reported
+                if (!reporting.compareAndSet(false, true)) return;
+                List<IabResult> results = consumeAll(op, purchases);
+
+                // aborted meanwhile: the items that weren't issued carry the abort
+                // result, the others their own
+                endAsync(op);
+                postConsumeResults(handler, purchases, results, singleListener, multiListener);
+            }
+        });
+
+        if (!started) {
+            if (!reporting.compareAndSet(false, true)) return;
+            endAsync(op);
+            List<IabResult> results = new ArrayList<IabResult>();
+            for (Purchase purchase : purchases) {
+                results.add(new IabResult(IABHELPER_ASYNC_REJECTED,
+                        "Can't consume " + purchase.getSku() + " now, too many operations pending."));
+            }
+            if (singleListener != null) singleListener.onConsumeFinished(purchases.get(0), results.get(0));
+            if (multiListener != null) multiListener.onConsumeMultiFinished(purchases, results);
+        }
+    }
+
+    List<IabResult> consumeAll(List<Purchase> purchases) {
+        return consumeAll(null, purchases);
+    }
+
+    // Consumes the purchases, up to mConsumeParallelism at a time, and returns their results
+    // in the same order. Records the time spent on each item in mLastConsumeTimings.
+    // Once op (if not null) is aborted, the items not issued yet are skipped and get the
+    // abort result; those already issued can't be called back, so they run to the end.
+    List<IabResult> consumeAll(final IabOperation op, final List<Purchase> purchases) {
+        int count = purchases.size();
+        int parallelism = Math.min(mConsumeParallelism, Math.max(count, 1));
+        final ConsumeTimings timings = new ConsumeTimings(parallelism, count);
+        final IabResult[] results = new IabResult[count];
+        long start = System.nanoTime();
+        IabParallel.forEach(mExecutor, count, parallelism, new IabParallel.Task() {
+            public void run(int index) {
+                Purchase purchase = purchases.get(index);
+                if (isAborted(op)) {
+                    results[index] = new IabResult(getAbortedResponse(op),
+                            "Consumption of sku " + purchase.getSku() + " not attempted: " + op.mName
+                            + (op.isTimedOut() ? " timed out" : " cancelled"));
+                    return;
                 }
-                if (!mDisposed && multiListener != null) {
-                    handler.post(new Runnable() {
-                        public void run() {
-                            multiListener.onConsumeMultiFinished(purchases, results);
-                        }
-                    });
+                long itemStart = System.nanoTime();
+                try {
+                    consume(purchase);
+                    results[index] = new IabResult(BILLING_RESPONSE_RESULT_OK, "Successful consume of sku " + purchase.getSku());
+                }
+                catch (IabException ex) {
+                    results[index] = ex.getResult();
+                }
+                catch (RuntimeException ex) {
+                    // don't leave a hole in the results
+                    results[index] = new IabResult(IABHELPER_UNKNOWN_ERROR,
+                            "Error consuming sku " + purchase.getSku() + ": " + ex);
                 }
+                timings.mItemNanos[index] = System.nanoTime() - itemStart;
             }
-        })).start();
+        });
+        timings.mTotalNanos = System.nanoTime() - start;
+        mLastConsumeTimings = timings;
+        logDebug("Consumed " + count + " item(s). " + timings);
+        return new ArrayList<IabResult>(Arrays.asList(results));
+    }
+
+    // Runs an asynchronous operation on the executor. Returns false if the executor
+    // rejected it (saturated or shut down), in which case nothing will run.
+    boolean executeAsync(Runnable operation) {
+        try {
+            mExecutor.execute(operation);
+            return true;
+        }
+        catch (RejectedExecutionException e) {
+            logError("Async operation (" + mScheduler.getCurrentOperation() + ") rejected by the executor.");
+            return false;
+        }
+    }
+
+    // Reports the start of an operation to the metrics sink, and returns its start time
+    long startMetric(int operation) {
+        mMetricsSink.onStart(operation);
+        return System.nanoTime();
+    }
+
+    // Reports the end of an operation started at startNanos, and returns its duration
+    long finishMetric(int operation, int response, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        mMetricsSink.onFinish(operation, response, nanos);
+        return nanos;
     }
 
     void logDebug(String msg) {
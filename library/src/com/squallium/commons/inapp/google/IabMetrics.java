@@ -0,0 +1,171 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The default {@link IabMetricsSink}: latency histograms, response code counters and
+ * in-flight gauges of every operation, kept in memory.
+ *
+ * Latencies are counted in power-of-two buckets of microseconds (bucket n holds the
+ * calls that took from 2^(n-1) to 2^n us), so percentiles are known within a factor
+ * of two, which is plenty to tell a 5 ms call from a 500 ms one. Recording is a few
+ * atomic increments into preallocated arrays: it never locks nor allocates.
+ *
+ * The counters only grow; compare two readings to get the activity in between.
+ */
+public class IabMetrics implements IabMetricsSink {
+    /** From startSetup until the setup listener is notified. */
+    public static final int SETUP = 0;
+    /** From binding the billing service (or rebinding it) until it is connected. */
+    public static final int BIND = 1;
+    /** A single isBillingSupported call. */
+    public static final int IS_BILLING_SUPPORTED = 2;
+    /** A single getPurchases call, that is one page of owned purchases. */
+    public static final int GET_PURCHASES = 3;
+    /** A single getSkuDetails call (at most 20 SKUs). */
+    public static final int GET_SKU_DETAILS = 4;
+    /** A single getBuyIntent call. */
+    public static final int GET_BUY_INTENT = 5;
+    /** A single consumePurchase call. */
+    public static final int CONSUME_PURCHASE = 6;
+    /** The signature verification of a single purchase. */
+    public static final int VERIFY_SIGNATURE = 7;
+    /** The signature verification of a page of owned purchases, as a whole. */
+    public static final int VERIFY_PAGE = 8;
+
+    public static final int OPERATION_COUNT = 9;
+
+    private static final String[] NAMES = {
+        "setup", "bind", "isBillingSupported", "getPurchases", "getSkuDetails",
+        "getBuyIntent", "consumePurchase", "verifySignature", "verifyPage"
+    };
+
+    // Latency buckets per operation; the last one holds everything above 2^30 us (~18 min)
+    static final int BUCKETS = 32;
+
+    // Response code slots per operation: the billing responses (0 to 8), the helper
+    // errors (-1001 to -1020), and one for anything else
+    static final int BILLING_RESPONSES = 9;
+    static final int HELPER_ERRORS = 20;
+    static final int RESPONSE_SLOTS = BILLING_RESPONSES + HELPER_ERRORS + 1;
+
+    final AtomicLongArray mBuckets = new AtomicLongArray(OPERATION_COUNT * BUCKETS);
+    final AtomicLongArray mResponses = new AtomicLongArray(OPERATION_COUNT * RESPONSE_SLOTS);
+    final AtomicLongArray mCounts = new AtomicLongArray(OPERATION_COUNT);
+    final AtomicLongArray mTotalNanos = new AtomicLongArray(OPERATION_COUNT);
+    final AtomicLongArray mMaxNanos = new AtomicLongArray(OPERATION_COUNT);
+    final AtomicIntegerArray mInFlight = new AtomicIntegerArray(OPERATION_COUNT);
+
+    public void onStart(int operation) {
+        mInFlight.incrementAndGet(operation);
+    }
+
+    public void onFinish(int operation, int response, long nanos) {
+        mInFlight.decrementAndGet(operation);
+        if (nanos < 0) nanos = 0;
+        mCounts.incrementAndGet(operation);
+        mTotalNanos.addAndGet(operation, nanos);
+        mBuckets.incrementAndGet(operation * BUCKETS + bucket(nanos));
+        mResponses.incrementAndGet(operation * RESPONSE_SLOTS + responseSlot(response));
+        long max;
+        do {
+            max = mMaxNanos.get(operation);
+        } while (nanos > max && !mMaxNanos.compareAndSet(operation, max, nanos));
+    }
+
+    /** Returns the name of an operation, such as "getPurchases". */
+    public static String getOperationName(int operation) {
+        return NAMES[operation];
+    }
+
+    /** Returns how many operations of the given kind have finished. */
+    public long getCount(int operation) {
+        return mCounts.get(operation);
+    }
+
+    /** Returns how many operations of the given kind finished with a response other than OK. */
+    public long getErrorCount(int operation) {
+        return mCounts.get(operation)
+                - mResponses.get(operation * RESPONSE_SLOTS + IabHelper.BILLING_RESPONSE_RESULT_OK);
+    }
+
+    /**
+     * Returns how many operations of the given kind finished with the given response code.
+     * Responses that are neither billing responses nor helper errors are counted together,
+     * under any such code.
+     */
+    public long getResponseCount(int operation, int response) {
+        return mResponses.get(operation * RESPONSE_SLOTS + responseSlot(response));
+    }
+
+    /** Returns how many operations of the given kind are in progress. */
+    public int getInFlight(int operation) {
+        return mInFlight.get(operation);
+    }
+
+    /** Returns the mean latency of the operations of the given kind, in milliseconds. */
+    public double getMeanMillis(int operation) {
+        long count = mCounts.get(operation);
+        return (count > 0) ? mTotalNanos.get(operation) / (count * 1000000.0) : 0;
+    }
+
+    /** Returns the highest latency of the operations of the given kind, in milliseconds. */
+    public double getMaxMillis(int operation) {
+        return mMaxNanos.get(operation) / 1000000.0;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile of the latency of the operations of
+     * the given kind, in milliseconds. The bound is at most twice the actual value.
+     *
+     * @param percentile The percentile, from 0 to 100 (50 for the median).
+     */
+    public double getPercentileMillis(int operation, double percentile) {
+        long[] buckets = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = mBuckets.get(operation * BUCKETS + i);
+            count += buckets[i];
+        }
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += buckets[i];
+            if (seen >= Math.max(rank, 1)) return Math.min((1L << i) / 1000.0, getMaxMillis(operation));
+        }
+        return getMaxMillis(operation);
+    }
+
+    // Returns the bucket of a latency: the smallest n such that it is under 2^n us
+    static int bucket(long nanos) {
+        int bucket = 64 - Long.numberOfLeadingZeros(nanos / 1000);
+        return (bucket < BUCKETS) ? bucket : BUCKETS - 1;
+    }
+
+    static int responseSlot(int response) {
+        if (response >= 0 && response < BILLING_RESPONSES) return response;
+        int helperError = IabHelper.IABHELPER_ERROR_BASE - response;
+        if (helperError >= 1 && helperError <= HELPER_ERRORS) {
+            return BILLING_RESPONSES + helperError - 1;
+        }
+        return RESPONSE_SLOTS - 1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("IabMetrics:");
+        for (int op = 0; op < OPERATION_COUNT; op++) {
+            long count = getCount(op);
+            int inFlight = getInFlight(op);
+            if (count == 0 && inFlight == 0) continue;
+            sb.append("\n  ").append(NAMES[op]).append(": ").append(count).append(" call(s), ")
+              .append(getErrorCount(op)).append(" error(s), ").append(inFlight).append(" in flight; p50 ")
+              .append(getPercentileMillis(op, 50)).append(" ms, p99 ")
+              .append(getPercentileMillis(op, 99)).append(" ms, max ")
+              .append(getMaxMillis(op)).append(" ms");
+        }
+        return sb.toString();
+    }
+}
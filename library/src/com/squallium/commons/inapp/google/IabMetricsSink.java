@@ -0,0 +1,42 @@
+package com.squallium.commons.inapp.google;
+
+/**
+ * Receives the measurements of the billing service calls made by an {@link IabHelper}
+ * (see {@link IabHelper#setMetricsSink}).
+ *
+ * Every measured call is reported twice: when it starts and when it finishes, with
+ * its response code ({@link IabHelper#BILLING_RESPONSE_RESULT_OK} on success) and its
+ * duration. The calls are identified by the operation constants of {@link IabMetrics}.
+ * The methods are called on whatever thread made the call, often several at once,
+ * so they must be thread-safe; they are on the hot path of every request, so they
+ * should neither block nor allocate.
+ */
+public interface IabMetricsSink {
+
+    /**
+     * A sink that discards everything.
+     */
+    IabMetricsSink NONE = new IabMetricsSink() {
+        public void onStart(int operation) {
+        }
+
+        public void onFinish(int operation, int response, long nanos) {
+        }
+    };
+
+    /**
+     * Called when an operation starts.
+     *
+     * @param operation The operation, such as {@link IabMetrics#GET_PURCHASES}.
+     */
+    void onStart(int operation);
+
+    /**
+     * Called when an operation started with {@link #onStart} finishes.
+     *
+     * @param operation The operation.
+     * @param response The response code of the operation (see {@link IabHelper#getResponseDesc}).
+     * @param nanos How long the operation took, in nanoseconds.
+     */
+    void onFinish(int operation, int response, long nanos);
+}
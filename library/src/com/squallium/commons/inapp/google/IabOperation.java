@@ -0,0 +1,116 @@
+package com.squallium.commons.inapp.google;
+
+import android.os.Handler;
+
+/**
+ * Handle of an asynchronous operation of an {@link IabHelper}, returned by the
+ * asynchronous methods (queryInventoryAsync, consumeAsync, launchPurchaseFlow...).
+ *
+ * An operation ends in one of three ways: it completes, it is cancelled with
+ * {@link #cancel}, or it times out (see {@link IabHelper#setOperationTimeout}).
+ * A cancelled or timed out operation releases its place in the helper's queue
+ * right away, so the operations scheduled after it don't wait for it, and its
+ * listener is called back with {@link IabHelper#IABHELPER_OPERATION_CANCELLED}
+ * or {@link IabHelper#IABHELPER_OPERATION_TIMED_OUT}. A billing service request
+ * already in progress can't be interrupted: it goes on in the background, and
+ * its outcome is discarded. Consumptions are the exception, as a consumed item is
+ * gone from Google Play: the items already sent to the billing service are
+ * reported with their own result, the others with the cancellation or timeout,
+ * once the former have finished.
+ */
+public class IabOperation {
+    static final int QUEUED = 0;
+    static final int RUNNING = 1;
+    static final int COMPLETED = 2;
+    static final int CANCELLED = 3;
+    static final int TIMED_OUT = 4;
+
+    /**
+     * Notifies the listener of an operation that it was cancelled or timed out.
+     */
+    interface Aborter {
+        void abort(IabResult result);
+    }
+
+    final IabHelper mHelper;
+    final String mName;
+
+    // Handler of the thread that scheduled the operation, where its deadline is timed
+    final Handler mHandler;
+
+    // Set by the operation before it is scheduled
+    Aborter mAborter;
+
+    // Fires when the deadline of the running operation expires (null if it has none)
+    Runnable mTimeout;
+
+    private int mState = QUEUED;
+
+    IabOperation(IabHelper helper, String name, Handler handler) {
+        mHelper = helper;
+        mName = name;
+        mHandler = handler;
+    }
+
+    /** Returns the name of the operation ("refresh inventory", "consume", ...). */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Cancels the operation, if it hasn't ended yet.
+     *
+     * @return true if the operation was cancelled, false if it had already ended.
+     */
+    public boolean cancel() {
+        return mHelper.abortAsync(this, CANCELLED);
+    }
+
+    /** Returns whether the operation has ended (completed, cancelled or timed out). */
+    public synchronized boolean isDone() {
+        return mState >= COMPLETED;
+    }
+
+    /** Returns whether the operation was cancelled. */
+    public synchronized boolean isCancelled() {
+        return mState == CANCELLED;
+    }
+
+    /** Returns whether the operation timed out. */
+    public synchronized boolean isTimedOut() {
+        return mState == TIMED_OUT;
+    }
+
+    // Returns whether the operation was cancelled or timed out
+    synchronized boolean isAborted() {
+        return mState == CANCELLED || mState == TIMED_OUT;
+    }
+
+    // Returns whether the operation is still waiting for its turn
+    synchronized boolean isQueued() {
+        return mState == QUEUED;
+    }
+
+    // Marks the operation as running. Returns false if it ended while queued.
+    synchronized boolean start() {
+        if (mState != QUEUED) return false;
+        mState = RUNNING;
+        return true;
+    }
+
+    // Marks the running operation as completed. Returns false if it was aborted first.
+    synchronized boolean complete() {
+        if (mState != RUNNING) return false;
+        mState = COMPLETED;
+        return true;
+    }
+
+    // Marks the operation as cancelled or timed out. Returns the state it was in, or -1
+    // if it had already ended.
+    synchronized int abort(int state) {
+        int previous = mState;
+        if (previous >= COMPLETED) return -1;
+        mState = state;
+        return previous;
+    }
+}
@@ -0,0 +1,126 @@
+package com.squallium.commons.inapp.google;
+
+import android.os.Handler;
+
+import java.util.LinkedList;
+
+/**
+ * Runs the asynchronous operations of an {@link IabHelper} (inventory queries,
+ * consumptions and purchase flows) one after another, in the order they were
+ * requested.
+ *
+ * An operation scheduled while another one is in progress is not rejected:
+ * it waits in a queue and is started, on the thread of the {@link Handler}
+ * given when it was scheduled, as soon as the previous operation finishes.
+ * The time each operation spent waiting in the queue is reported through
+ * {@link OnOperationStartedListener}.
+ */
+public class IabOperationScheduler {
+
+    /**
+     * Callback that notifies when a scheduled operation actually starts.
+     */
+    public interface OnOperationStartedListener {
+        /**
+         * Called when an operation leaves the queue and starts running.
+         *
+         * @param operation The name of the operation ("refresh inventory", "consume", ...).
+         * @param queuedMillis How long the operation waited in the queue, in milliseconds.
+         */
+        public void onOperationStarted(String operation, long queuedMillis);
+    }
+
+    // Operations waiting for the current one to finish, in arrival order
+    private final LinkedList<Operation> mPending = new LinkedList<Operation>();
+
+    // The operation in progress (null if there is none)
+    private Operation mCurrent;
+
+    private volatile OnOperationStartedListener mListener;
+
+    public void setOnOperationStartedListener(OnOperationStartedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Schedules an operation. If no other operation is in progress, it starts right
+     * away on the calling thread; otherwise it is queued and will be started on the
+     * handler's thread once all the operations scheduled before it have finished.
+     * Every operation must call {@link #finish} when it's done.
+     *
+     * @param name The name of the operation, for logging and reporting.
+     * @param handler The handler used to start the operation if it has to wait.
+     * @param start The code that starts the operation.
+     * @return true if the operation started right away, false if it was queued.
+     */
+    public boolean schedule(String name, Handler handler, Runnable start) {
+        Operation operation = new Operation(name, handler, start);
+        synchronized (this) {
+            if (mCurrent != null) {
+                mPending.add(operation);
+                return false;
+            }
+            mCurrent = operation;
+        }
+        operation.run();
+        return true;
+    }
+
+    /**
+     * Marks the operation in progress as finished and starts the next queued one, if any.
+     */
+    public void finish() {
+        Operation next;
+        synchronized (this) {
+            next = mPending.poll();
+            mCurrent = next;
+        }
+        if (next != null) next.mHandler.post(next);
+    }
+
+    /**
+     * Drops the operation in progress and all the queued ones, without starting them.
+     */
+    public synchronized void clear() {
+        mPending.clear();
+        mCurrent = null;
+    }
+
+    /** Returns whether an operation is in progress. */
+    public synchronized boolean isBusy() {
+        return mCurrent != null;
+    }
+
+    /** Returns the name of the operation in progress, or an empty string if there is none. */
+    public synchronized String getCurrentOperation() {
+        return mCurrent != null ? mCurrent.mName : "";
+    }
+
+    /** Returns the number of operations waiting in the queue. */
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    // An operation together with the moment it was scheduled
+    private class Operation implements Runnable {
+        final String mName;
+        final Handler mHandler;
+        final Runnable mStart;
+        final long mScheduledNanos = System.nanoTime();
+
+        Operation(String name, Handler handler, Runnable start) {
+            mName = name;
+            mHandler = handler;
+            mStart = start;
+        }
+
+        public void run() {
+            OnOperationStartedListener listener = mListener;
+            if (listener != null) {
+                long queuedMillis = (System.nanoTime() - mScheduledNanos) / 1000000L;
+                listener.onOperationStarted(mName, queuedMillis);
+            }
+            mStart.run();
+        }
+    }
+}
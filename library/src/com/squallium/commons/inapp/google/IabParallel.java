@@ -0,0 +1,85 @@
+package com.squallium.commons.inapp.google;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a batch of independent tasks with bounded parallelism.
+ *
+ * The calling thread takes part in the work and at most (parallelism - 1)
+ * helpers are submitted to the executor. Tasks are claimed in index order by
+ * whichever thread is free, so the batch always completes, even if the
+ * executor is saturated (or busy running the caller itself) and the helpers
+ * never get to start. Tasks report their results and errors by index, which
+ * keeps them in the original order.
+ */
+class IabParallel {
+
+    /**
+     * A task of the batch, identified by its index. Tasks must not throw: they
+     * should record their errors by index, like their results.
+     */
+    interface Task {
+        void run(int index);
+    }
+
+    /** Defeats instantiation. */
+    private IabParallel() {
+    }
+
+    /**
+     * Runs task.run(0) ... task.run(count - 1) using up to parallelism threads,
+     * and returns once all of them have finished.
+     *
+     * @param executor The executor where the helpers are submitted.
+     * @param count Number of tasks.
+     * @param parallelism Maximum number of tasks running at the same time
+     *     (including the calling thread). 1 runs everything on the calling thread.
+     * @param task The task to run for every index.
+     */
+    static void forEach(Executor executor, final int count, int parallelism, final Task task) {
+        if (count <= 0) return;
+
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(count);
+        Runnable worker = new Runnable() {
+            public void run() {
+                int index;
+                while ((index = next.getAndIncrement()) < count) {
+                    try {
+                        task.run(index);
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+
+        int helpers = Math.min(parallelism, count) - 1;
+        for (int i = 0; i < helpers; i++) {
+            try {
+                executor.execute(worker);
+            }
+            catch (RejectedExecutionException e) {
+                // no room for more helpers; the calling thread does the rest
+                break;
+            }
+        }
+        worker.run();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -16,38 +16,66 @@
 package com.squallium.commons.inapp.google;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Represents a block of information about in-app items.
  * An Inventory is returned by such methods as {@link IabHelper#queryInventory}.
+ *
+ * Inventories can be read from any number of threads without locking. Their
+ * contents are immutable: every change (such as {@link #erasePurchase}) works on
+ * a copy, which is then published as a whole through an atomic reference, so a
+ * reader never sees a change half-way through. To make several lookups against
+ * the same contents, take a {@link #snapshot} first.
  */
 public class Inventory {
-    Map<String,SkuDetails> mSkuMap = new HashMap<String,SkuDetails>();
-    Map<String,Purchase> mPurchaseMap = new HashMap<String,Purchase>();
+    // The published contents, replaced (never modified) on every change
+    final AtomicReference<Contents> mContents;
+    volatile boolean mStale = false;
+
+    Inventory() {
+        this(new Contents());
+    }
 
-    Inventory() { }
+    private Inventory(Contents contents) {
+        mContents = new AtomicReference<Contents>(contents);
+    }
+
+    /**
+     * Returns an inventory with the current contents of this one. Later changes to either
+     * inventory don't affect the other. This doesn't copy anything.
+     */
+    public Inventory snapshot() {
+        Inventory inv = new Inventory(mContents.get());
+        inv.mStale = mStale;
+        return inv;
+    }
 
     /** Returns the listing details for an in-app product. */
     public SkuDetails getSkuDetails(String sku) {
-        return mSkuMap.get(sku);
+        return mContents.get().mSkuMap.get(sku);
     }
 
     /** Returns purchase information for a given product, or null if there is no purchase. */
     public Purchase getPurchase(String sku) {
-        return mPurchaseMap.get(sku);
+        return mContents.get().mPurchaseMap.get(sku);
     }
 
     /** Returns whether or not there exists a purchase of the given product. */
     public boolean hasPurchase(String sku) {
-        return mPurchaseMap.containsKey(sku);
+        return mContents.get().mPurchaseMap.containsKey(sku);
     }
 
     /** Return whether or not details about the given product are available. */
     public boolean hasDetails(String sku) {
-        return mSkuMap.containsKey(sku);
+        return mContents.get().mSkuMap.containsKey(sku);
     }
 
     /**
@@ -58,34 +86,173 @@ public class Inventory {
      * purchase data from the Inventory you already have is quicker than querying for
      * a new Inventory.
      */
-    public void erasePurchase(String sku) {
-        if (mPurchaseMap.containsKey(sku)) mPurchaseMap.remove(sku);
+    public synchronized void erasePurchase(String sku) {
+        Contents contents = mContents.get();
+        if (!contents.mPurchaseMap.containsKey(sku)) return;
+        Contents next = new Contents(contents);
+        next.removePurchase(sku);
+        mContents.set(next);
     }
 
     /** Returns a list of all owned product IDs. */
     public List<String> getAllOwnedSkus() {
-        return new ArrayList<String>(mPurchaseMap.keySet());
+        return new ArrayList<String>(mContents.get().mPurchaseMap.keySet());
     }
 
     /** Returns a list of all owned product IDs of a given type */
     List<String> getAllOwnedSkus(String itemType) {
-        List<String> result = new ArrayList<String>();
-        for (Purchase p : mPurchaseMap.values()) {
-            if (p.getItemType().equals(itemType)) result.add(p.getSku());
+        Set<String> skus = mContents.get().mSkusByType.get(itemType);
+        return (skus != null) ? new ArrayList<String>(skus) : new ArrayList<String>();
+    }
+
+    /**
+     * Returns the purchases in a given state.
+     *
+     * @param purchaseState The state of the purchases (0 purchased, 1 canceled, 2 refunded).
+     */
+    public List<Purchase> getPurchasesByState(int purchaseState) {
+        Contents contents = mContents.get();
+        List<Purchase> result = new ArrayList<Purchase>();
+        Set<String> skus = contents.getSkusByState().get(purchaseState);
+        if (skus != null) {
+            for (String sku : skus) result.add(contents.mPurchaseMap.get(sku));
         }
         return result;
     }
 
     /** Returns a list of all purchases. */
     List<Purchase> getAllPurchases() {
-        return new ArrayList<Purchase>(mPurchaseMap.values());
+        return new ArrayList<Purchase>(mContents.get().mPurchaseMap.values());
+    }
+
+    /** Returns a list of all product details. */
+    List<SkuDetails> getAllSkuDetails() {
+        return new ArrayList<SkuDetails>(mContents.get().mSkuMap.values());
+    }
+
+    /**
+     * Returns whether this inventory was loaded from the snapshot saved by a previous
+     * session (see {@link IabHelper#loadInventorySnapshotAsync}) or copied from an earlier
+     * query (see {@link IabHelper#getCachedInventory}) instead of being queried from
+     * Google Play. A stale inventory may not reflect purchases made, consumed or
+     * refunded since it was saved.
+     */
+    public boolean isStale() {
+        return mStale;
     }
 
     void addSkuDetails(SkuDetails d) {
-        mSkuMap.put(d.getSku(), d);
+        addAllSkuDetails(Collections.singletonList(d));
+    }
+
+    // Every change copies the contents: add items in batches where possible
+    synchronized void addAllSkuDetails(Collection<SkuDetails> details) {
+        Contents next = new Contents(mContents.get());
+        for (SkuDetails d : details) next.mSkuMap.put(d.getSku(), d);
+        mContents.set(next);
     }
 
     void addPurchase(Purchase p) {
-        mPurchaseMap.put(p.getSku(), p);
+        addPurchases(Collections.singletonList(p));
+    }
+
+    synchronized void addPurchases(Collection<Purchase> purchases) {
+        Contents next = new Contents(mContents.get());
+        for (Purchase p : purchases) next.putPurchase(p);
+        mContents.set(next);
+    }
+
+    synchronized void addAll(Inventory inv) {
+        Contents other = inv.mContents.get();
+        Contents next = new Contents(mContents.get());
+        next.mSkuMap.putAll(other.mSkuMap);
+        for (Purchase p : other.mPurchaseMap.values()) next.putPurchase(p);
+        mContents.set(next);
+    }
+
+    // The contents of an inventory. They are only modified while being built by one of
+    // the writers above, before they are published in mContents.
+    static class Contents {
+        final Map<String,SkuDetails> mSkuMap;
+        final Map<String,Purchase> mPurchaseMap;
+
+        // Owned SKUs by item type, kept up to date with mPurchaseMap
+        final Map<String,Set<String>> mSkusByType;
+
+        // Owned SKUs by purchase state, built on first use (it decodes the state of
+        // every purchase). Once built, it is copied along with the contents and kept up
+        // to date with mPurchaseMap.
+        volatile Map<Integer,Set<String>> mSkusByState;
+
+        Contents() {
+            mSkuMap = new HashMap<String,SkuDetails>();
+            mPurchaseMap = new HashMap<String,Purchase>();
+            mSkusByType = new HashMap<String,Set<String>>();
+        }
+
+        Contents(Contents contents) {
+            mSkuMap = new HashMap<String,SkuDetails>(contents.mSkuMap);
+            mPurchaseMap = new HashMap<String,Purchase>(contents.mPurchaseMap);
+            mSkusByType = new HashMap<String,Set<String>>();
+            copyIndex(contents.mSkusByType, mSkusByType);
+            Map<Integer,Set<String>> skusByState = contents.mSkusByState;
+            if (skusByState != null) {
+                mSkusByState = new HashMap<Integer,Set<String>>();
+                copyIndex(skusByState, mSkusByState);
+            }
+        }
+
+        void putPurchase(Purchase p) {
+            Map<Integer,Set<String>> skusByState = mSkusByState;
+            Purchase old = mPurchaseMap.put(p.getSku(), p);
+            if (old != null) {
+                unindex(mSkusByType, old.getItemType(), old.getSku());
+                if (skusByState != null) unindex(skusByState, old.getPurchaseState(), old.getSku());
+            }
+            index(mSkusByType, p.getItemType(), p.getSku());
+            if (skusByState != null) index(skusByState, p.getPurchaseState(), p.getSku());
+        }
+
+        void removePurchase(String sku) {
+            Map<Integer,Set<String>> skusByState = mSkusByState;
+            Purchase p = mPurchaseMap.remove(sku);
+            if (p != null) {
+                unindex(mSkusByType, p.getItemType(), sku);
+                if (skusByState != null) unindex(skusByState, p.getPurchaseState(), sku);
+            }
+        }
+
+        Map<Integer,Set<String>> getSkusByState() {
+            Map<Integer,Set<String>> skusByState = mSkusByState;
+            if (skusByState == null) {
+                // racing readers build the same index; any of them can be kept
+                skusByState = new HashMap<Integer,Set<String>>();
+                for (Purchase p : mPurchaseMap.values()) {
+                    index(skusByState, p.getPurchaseState(), p.getSku());
+                }
+                mSkusByState = skusByState;
+            }
+            return skusByState;
+        }
+
+        private static <K> void copyIndex(Map<K,Set<String>> from, Map<K,Set<String>> to) {
+            for (Map.Entry<K,Set<String>> entry : from.entrySet()) {
+                to.put(entry.getKey(), new LinkedHashSet<String>(entry.getValue()));
+            }
+        }
+
+        private static <K> void index(Map<K,Set<String>> index, K key, String sku) {
+            Set<String> skus = index.get(key);
+            if (skus == null) {
+                skus = new LinkedHashSet<String>();
+                index.put(key, skus);
+            }
+            skus.add(sku);
+        }
+
+        private static <K> void unindex(Map<K,Set<String>> index, K key, String sku) {
+            Set<String> skus = index.get(key);
+            if (skus != null && skus.remove(sku) && skus.isEmpty()) index.remove(key);
+        }
     }
 }
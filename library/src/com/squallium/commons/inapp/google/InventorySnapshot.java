@@ -0,0 +1,152 @@
+package com.squallium.commons.inapp.google;
+
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact on-disk copy of the last verified {@link Inventory}, so that it can be
+ * delivered as soon as the app starts, before the billing service is bound and
+ * the live inventory is queried.
+ *
+ * The file is a versioned binary record: a magic number and a format version,
+ * then the purchases (item type, original JSON and signature) and the SKU details
+ * (item type and JSON). Files with another magic number or version are ignored.
+ * Writes go to a temporary file that is synced to disk and then renamed, so a
+ * crash or a power loss while saving never leaves a truncated snapshot behind.
+ * Counts and lengths are bounded when reading, so a corrupted file is rejected
+ * with an IOException instead of failing with huge allocations.
+ */
+class InventorySnapshot {
+    static final int MAGIC = 0x49414249; // "IABI"
+    static final int VERSION = 1;
+
+    private static final String CHARSET = "UTF-8";
+
+    // Upper bound for a single string, to detect corrupted files
+    private static final int MAX_STRING_BYTES = 1024 * 1024;
+
+    // Upper bound for the number of purchases or SKU details, to detect corrupted files
+    private static final int MAX_ENTRIES = 64 * 1024;
+
+    /** Defeats instantiation. */
+    private InventorySnapshot() {
+    }
+
+    /**
+     * Saves the inventory to the given file, replacing the previous snapshot.
+     */
+    static void write(File file, Inventory inv) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        boolean renamed = false;
+        try {
+            FileOutputStream fileOut = new FileOutputStream(tmp);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+
+                List<Purchase> purchases = inv.getAllPurchases();
+                out.writeInt(purchases.size());
+                for (Purchase p : purchases) {
+                    writeString(out, p.getItemType());
+                    writeString(out, p.getOriginalJson());
+                    writeString(out, p.getSignature());
+                }
+
+                List<SkuDetails> details = inv.getAllSkuDetails();
+                out.writeInt(details.size());
+                for (SkuDetails d : details) {
+                    writeString(out, d.mItemType);
+                    writeString(out, d.mJson);
+                }
+
+                // the data must be on disk before the rename makes it the snapshot
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Can't replace inventory snapshot " + file);
+            }
+            renamed = true;
+        }
+        finally {
+            // whatever failed, don't leave a partial snapshot behind
+            if (!renamed) tmp.delete();
+        }
+    }
+
+    /**
+     * Reads the inventory saved in the given file. The signatures of the purchases
+     * are NOT verified here.
+     *
+     * @return The inventory, or null if there is no snapshot or it has another format.
+     */
+    static Inventory read(File file) throws IOException, JSONException {
+        if (!file.exists()) return null;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+
+            int count = readCount(in);
+            List<Purchase> purchases = new ArrayList<Purchase>(count);
+            for (int i = 0; i < count; i++) {
+                String itemType = readString(in);
+                String json = readString(in);
+                String signature = readString(in);
+                purchases.add(new Purchase(itemType, json, signature));
+            }
+
+            count = readCount(in);
+            List<SkuDetails> details = new ArrayList<SkuDetails>(count);
+            for (int i = 0; i < count; i++) {
+                String itemType = readString(in);
+                details.add(new SkuDetails(itemType, readString(in)));
+            }
+
+            Inventory inv = new Inventory();
+            inv.addPurchases(purchases);
+            inv.addAllSkuDetails(details);
+            return inv;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_ENTRIES) {
+            throw new IOException("Corrupted inventory snapshot.");
+        }
+        return count;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Corrupted inventory snapshot.");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, CHARSET);
+    }
+}
@@ -0,0 +1,68 @@
+package com.squallium.commons.inapp.google;
+
+/**
+ * Wall-clock breakdown of an inventory query (see {@link IabHelper#queryInventory}).
+ *
+ * The query has one branch per item type (products and, if supported,
+ * subscriptions), each made of the owned purchases query followed by the SKU
+ * details query. When the branches run concurrently (see
+ * {@link IabHelper#setConcurrentInventoryQuery}), the total time is close to
+ * the slowest branch instead of the sum of both.
+ */
+public class InventoryTimings {
+    boolean mConcurrent;
+    long mTotalNanos;
+    long mItemPurchasesNanos;
+    long mItemDetailsNanos;
+    long mSubsPurchasesNanos;
+    long mSubsDetailsNanos;
+
+    InventoryTimings(boolean concurrent) {
+        mConcurrent = concurrent;
+    }
+
+    void setBranch(String itemType, long purchasesNanos, long detailsNanos) {
+        if (IabHelper.ITEM_TYPE_SUBS.equals(itemType)) {
+            mSubsPurchasesNanos = purchasesNanos;
+            mSubsDetailsNanos = detailsNanos;
+        }
+        else {
+            mItemPurchasesNanos = purchasesNanos;
+            mItemDetailsNanos = detailsNanos;
+        }
+    }
+
+    /** Returns whether the item type branches ran concurrently. */
+    public boolean isConcurrent() { return mConcurrent; }
+
+    /** Returns the total time of the query, in milliseconds. */
+    public long getTotalMillis() { return toMillis(mTotalNanos); }
+
+    /** Returns the time spent querying the owned purchases of the given item type, in milliseconds. */
+    public long getPurchasesMillis(String itemType) {
+        return toMillis(IabHelper.ITEM_TYPE_SUBS.equals(itemType) ? mSubsPurchasesNanos : mItemPurchasesNanos);
+    }
+
+    /** Returns the time spent querying the SKU details of the given item type, in milliseconds. */
+    public long getSkuDetailsMillis(String itemType) {
+        return toMillis(IabHelper.ITEM_TYPE_SUBS.equals(itemType) ? mSubsDetailsNanos : mItemDetailsNanos);
+    }
+
+    /** Returns the time of the whole branch of the given item type, in milliseconds. */
+    public long getBranchMillis(String itemType) {
+        return getPurchasesMillis(itemType) + getSkuDetailsMillis(itemType);
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000L;
+    }
+
+    @Override
+    public String toString() {
+        return "InventoryTimings(" + (mConcurrent ? "concurrent" : "sequential") + "): total "
+                + getTotalMillis() + " ms; inapp " + getPurchasesMillis(IabHelper.ITEM_TYPE_INAPP)
+                + " + " + getSkuDetailsMillis(IabHelper.ITEM_TYPE_INAPP) + " ms; subs "
+                + getPurchasesMillis(IabHelper.ITEM_TYPE_SUBS) + " + "
+                + getSkuDetailsMillis(IabHelper.ITEM_TYPE_SUBS) + " ms";
+    }
+}
@@ -0,0 +1,333 @@
+package com.squallium.commons.inapp.google;
+
+import org.json.JSONException;
+
+/**
+ * A lightweight scanner for the JSON objects sent by Google Play, used to read
+ * single fields without building a {@link org.json.JSONObject}.
+ *
+ * {@link #checkObject} validates a whole object in one pass without allocating
+ * anything; the getters then look up a top-level field by walking the text,
+ * skipping the values of the other fields, and only decode the value that was
+ * asked for. The getters follow the conversions of the optString/optLong/optInt
+ * methods of JSONObject, including taking the last value of a field that appears
+ * more than once, and assume the text has already been validated. Numbers are
+ * returned by getString as written rather than reformatted, and integers with
+ * leading zeros (which aren't JSON) are read as decimal rather than octal.
+ * Validation accepts standard JSON; it is stricter than JSONObject about some
+ * malformed input (unquoted strings, trailing commas), which Google Play
+ * doesn't send.
+ */
+class JsonScanner {
+
+    /** Defeats instantiation. */
+    private JsonScanner() {
+    }
+
+    /**
+     * Checks that the text is a well-formed JSON object.
+     *
+     * @param json The text to check.
+     * @throws JSONException if it isn't a JSON object.
+     */
+    static void checkObject(String json) throws JSONException {
+        if (json == null) throw new JSONException("null JSON");
+        int pos = skipWhitespace(json, 0);
+        if (pos >= json.length() || json.charAt(pos) != '{') {
+            throw syntaxError("A JSONObject text must begin with '{'", json, pos);
+        }
+        // like JSONObject, ignore whatever follows the object
+        checkValue(json, pos);
+    }
+
+    /**
+     * Returns the value of a top-level field as a string, like JSONObject.optString.
+     *
+     * @param json A validated JSON object.
+     * @param name The name of the field.
+     * @param fallback The value to return if the field doesn't exist.
+     */
+    static String getString(String json, String name, String fallback) {
+        return getString(json, name, null, fallback);
+    }
+
+    /**
+     * Returns the value of a top-level field as a string, or if there is no such
+     * field, the value of another one, like
+     * {@code optString(name, optString(alternateName, fallback))}, with a single scan.
+     *
+     * @param json A validated JSON object.
+     * @param name The name of the field.
+     * @param alternateName The name of the field to use if there is no name field.
+     * @param fallback The value to return if neither field exists.
+     */
+    static String getString(String json, String name, String alternateName, String fallback) {
+        int pos = findValue(json, name, alternateName);
+        if (pos < 0) return fallback;
+        if (json.charAt(pos) == '"') return decodeString(json, pos);
+        return json.substring(pos, skipValue(json, pos));
+    }
+
+    /**
+     * Returns the value of a top-level field as a long, like JSONObject.optLong.
+     *
+     * @param json A validated JSON object.
+     * @param name The name of the field.
+     * @param fallback The value to return if the field doesn't exist or isn't a number.
+     */
+    static long getLong(String json, String name, long fallback) {
+        Number number = getNumber(json, name);
+        return (number != null) ? number.longValue() : fallback;
+    }
+
+    /**
+     * Returns the value of a top-level field as an int, like JSONObject.optInt.
+     *
+     * @param json A validated JSON object.
+     * @param name The name of the field.
+     * @param fallback The value to return if the field doesn't exist or isn't a number.
+     */
+    static int getInt(String json, String name, int fallback) {
+        Number number = getNumber(json, name);
+        return (number != null) ? number.intValue() : fallback;
+    }
+
+    // Returns the value of a top-level field as JSONObject holds it: a Long for integral
+    // numbers that fit, a Double for other numbers and for numeric strings, or null if
+    // there is no such field or it isn't a number. So narrowing it wraps or saturates
+    // like the opt methods
+    private static Number getNumber(String json, String name) {
+        int pos = findValue(json, name, null);
+        if (pos < 0) return null;
+        try {
+            if (json.charAt(pos) == '"') return Double.valueOf(decodeString(json, pos));
+            String literal = json.substring(pos, skipValue(json, pos));
+            if (literal.indexOf('.') < 0 && literal.indexOf('e') < 0 && literal.indexOf('E') < 0) {
+                try {
+                    return Long.valueOf(literal);
+                } catch (NumberFormatException e) {
+                    // too large for a long
+                }
+            }
+            return Double.valueOf(literal);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Returns the position of the value of a top-level field, or if there is no such field,
+    // of the alternate one (if not null), or -1 if there is neither. Like JSONObject, the
+    // last of duplicate fields wins, so the whole object is scanned
+    private static int findValue(String json, String name, String alternateName) {
+        int namePos = -1;
+        int alternatePos = -1;
+        int pos = skipWhitespace(json, 0) + 1; // past '{'
+        while (true) {
+            pos = skipWhitespace(json, pos);
+            if (json.charAt(pos) == '}') break;
+
+            boolean match = nameMatches(json, pos, name);
+            boolean alternateMatch = !match && alternateName != null
+                    && nameMatches(json, pos, alternateName);
+            pos = skipWhitespace(json, skipString(json, pos)) + 1; // past ':'
+            pos = skipWhitespace(json, pos);
+            if (match) namePos = pos;
+            else if (alternateMatch) alternatePos = pos;
+
+            pos = skipWhitespace(json, skipValue(json, pos));
+            if (json.charAt(pos) == '}') break;
+            pos++; // past ','
+        }
+        return (namePos >= 0) ? namePos : alternatePos;
+    }
+
+    // Does the string at pos hold the given name? (which has no backslashes)
+    private static boolean nameMatches(String json, int pos, String name) {
+        int length = name.length();
+        int end = pos + 1 + length;
+        if (end < json.length() && json.charAt(end) == '"'
+                && json.regionMatches(pos + 1, name, 0, length)) {
+            return true;
+        }
+        // names with escape sequences are rare: decode them
+        return hasEscapes(json, pos) && decodeString(json, pos).equals(name);
+    }
+
+    // Does the string that starts at pos have escape sequences?
+    private static boolean hasEscapes(String json, int pos) {
+        char c;
+        while ((c = json.charAt(++pos)) != '"') {
+            if (c == '\\') return true;
+        }
+        return false;
+    }
+
+    // Returns the position after the value that starts at pos
+    private static int skipValue(String json, int pos) {
+        char c = json.charAt(pos);
+        if (c == '"') return skipString(json, pos);
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = json.charAt(pos);
+                if (c == '"') {
+                    pos = skipString(json, pos);
+                    continue;
+                }
+                if (c == '{' || c == '[') depth++;
+                else if (c == '}' || c == ']') depth--;
+                pos++;
+            } while (depth > 0);
+            return pos;
+        }
+        while (pos < json.length() && isLiteralChar(json.charAt(pos))) pos++;
+        return pos;
+    }
+
+    // Returns the position after the string that starts at pos
+    private static int skipString(String json, int pos) {
+        int end = json.indexOf('"', pos + 1);
+        while (isEscaped(json, end)) end = json.indexOf('"', end + 1);
+        return end + 1;
+    }
+
+    // Is the character at pos escaped? (preceded by an odd number of backslashes)
+    private static boolean isEscaped(String json, int pos) {
+        int backslashes = 0;
+        while (json.charAt(pos - 1 - backslashes) == '\\') backslashes++;
+        return (backslashes & 1) != 0;
+    }
+
+    // Decodes the string that starts at pos
+    private static String decodeString(String json, int pos) {
+        int start = pos + 1;
+        int end = start;
+        char c;
+        while ((c = json.charAt(end)) != '"') {
+            if (c == '\\') return unescape(json, start);
+            end++;
+        }
+        return json.substring(start, end);
+    }
+
+    // Decodes the string that starts at start (after the quote), which has escape sequences
+    private static String unescape(String json, int start) {
+        StringBuilder sb = new StringBuilder();
+        int pos = start;
+        while (true) {
+            char c = json.charAt(pos++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            c = json.charAt(pos++);
+            switch (c) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default: sb.append(c); break; // '"', '\\', '/' and unknown escapes
+            }
+        }
+    }
+
+    // Checks the value that starts at pos and returns the position after it
+    private static int checkValue(String json, int pos) throws JSONException {
+        if (pos >= json.length()) throw syntaxError("Unterminated value", json, pos);
+        char c = json.charAt(pos);
+        switch (c) {
+            case '"':
+                return checkString(json, pos);
+            case '{':
+                return checkContainer(json, pos, '}', true);
+            case '[':
+                return checkContainer(json, pos, ']', false);
+            default:
+                return checkLiteral(json, pos);
+        }
+    }
+
+    // Checks an object or array that starts at pos and returns the position after it
+    private static int checkContainer(String json, int pos, char close, boolean object)
+            throws JSONException {
+        pos = skipWhitespace(json, pos + 1);
+        if (pos < json.length() && json.charAt(pos) == close) return pos + 1;
+        while (true) {
+            if (object) {
+                if (pos >= json.length() || json.charAt(pos) != '"') {
+                    throw syntaxError("Expected a name", json, pos);
+                }
+                pos = skipWhitespace(json, checkString(json, pos));
+                if (pos >= json.length() || json.charAt(pos) != ':') {
+                    throw syntaxError("Expected ':' after a name", json, pos);
+                }
+                pos = skipWhitespace(json, pos + 1);
+            }
+            pos = skipWhitespace(json, checkValue(json, pos));
+            if (pos >= json.length()) throw syntaxError("Unterminated object", json, pos);
+            char c = json.charAt(pos);
+            if (c == close) return pos + 1;
+            if (c != ',') throw syntaxError("Expected ',' or '" + close + "'", json, pos);
+            pos = skipWhitespace(json, pos + 1);
+        }
+    }
+
+    // Checks a string that starts at pos and returns the position after it
+    private static int checkString(String json, int pos) throws JSONException {
+        int length = json.length();
+        pos++;
+        while (pos < length) {
+            char c = json.charAt(pos++);
+            if (c == '"') return pos;
+            if (c == '\\') {
+                if (pos >= length) break;
+                c = json.charAt(pos++);
+                if (c == 'u') {
+                    if (pos + 4 > length) break;
+                    for (int i = 0; i < 4; i++) {
+                        if (Character.digit(json.charAt(pos++), 16) < 0) {
+                            throw syntaxError("Invalid escape sequence", json, pos - 1);
+                        }
+                    }
+                }
+            }
+        }
+        throw syntaxError("Unterminated string", json, pos);
+    }
+
+    // Checks a number, true, false or null that starts at pos and returns the position after it
+    private static int checkLiteral(String json, int pos) throws JSONException {
+        int end = pos;
+        boolean number = true;
+        while (end < json.length() && isLiteralChar(json.charAt(end))) {
+            if ("0123456789+-.eE".indexOf(json.charAt(end)) < 0) number = false;
+            end++;
+        }
+        int length = end - pos;
+        if (length > 0 && (number && Character.digit(json.charAt(end - 1), 10) >= 0
+                || length == 4 && (json.startsWith("true", pos) || json.startsWith("null", pos))
+                || length == 5 && json.startsWith("false", pos))) {
+            return end;
+        }
+        throw syntaxError("Invalid value", json, pos);
+    }
+
+    private static boolean isLiteralChar(char c) {
+        return c > ' ' && ",:]}[{\"".indexOf(c) < 0;
+    }
+
+    private static int skipWhitespace(String json, int pos) {
+        while (pos < json.length() && json.charAt(pos) <= ' ') pos++;
+        return pos;
+    }
+
+    private static JSONException syntaxError(String message, String json, int pos) {
+        return new JSONException(message + " at character " + pos + " of " + json);
+    }
+}
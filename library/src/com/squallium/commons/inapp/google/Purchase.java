@@ -16,48 +16,88 @@
 package com.squallium.commons.inapp.google;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
 /**
  * Represents an in-app billing purchase.
+ *
+ * The JSON of the purchase is checked when the purchase is created, but its
+ * fields are only decoded the first time they are read.
  */
 public class Purchase {
     String mItemType;  // ITEM_TYPE_INAPP or ITEM_TYPE_SUBS
+    String mOriginalJson;
+    String mSignature;
+
+    // Fields decoded from mOriginalJson on first access (null until then)
     String mOrderId;
     String mPackageName;
     String mSku;
-    long mPurchaseTime;
-    int mPurchaseState;
     String mDeveloperPayload;
     String mToken;
-    String mOriginalJson;
-    String mSignature;
+
+    // Numeric fields, decoded together on first access
+    long mPurchaseTime;
+    int mPurchaseState;
+    volatile boolean mNumbersDecoded;
 
     public Purchase(String itemType, String jsonPurchaseInfo, String signature) throws JSONException {
+        JsonScanner.checkObject(jsonPurchaseInfo);
         mItemType = itemType;
         mOriginalJson = jsonPurchaseInfo;
-        JSONObject o = new JSONObject(mOriginalJson);
-        mOrderId = o.optString("orderId");
-        mPackageName = o.optString("packageName");
-        mSku = o.optString("productId");
-        mPurchaseTime = o.optLong("purchaseTime");
-        mPurchaseState = o.optInt("purchaseState");
-        mDeveloperPayload = o.optString("developerPayload");
-        mToken = o.optString("token", o.optString("purchaseToken"));
         mSignature = signature;
     }
 
     public String getItemType() { return mItemType; }
-    public String getOrderId() { return mOrderId; }
-    public String getPackageName() { return mPackageName; }
-    public String getSku() { return mSku; }
-    public long getPurchaseTime() { return mPurchaseTime; }
-    public int getPurchaseState() { return mPurchaseState; }
-    public String getDeveloperPayload() { return mDeveloperPayload; }
-    public String getToken() { return mToken; }
+
+    public String getOrderId() {
+        if (mOrderId == null) mOrderId = JsonScanner.getString(mOriginalJson, "orderId", "");
+        return mOrderId;
+    }
+
+    public String getPackageName() {
+        if (mPackageName == null) mPackageName = JsonScanner.getString(mOriginalJson, "packageName", "");
+        return mPackageName;
+    }
+
+    public String getSku() {
+        if (mSku == null) mSku = JsonScanner.getString(mOriginalJson, "productId", "");
+        return mSku;
+    }
+
+    public long getPurchaseTime() {
+        decodeNumbers();
+        return mPurchaseTime;
+    }
+
+    public int getPurchaseState() {
+        decodeNumbers();
+        return mPurchaseState;
+    }
+
+    public String getDeveloperPayload() {
+        if (mDeveloperPayload == null) {
+            mDeveloperPayload = JsonScanner.getString(mOriginalJson, "developerPayload", "");
+        }
+        return mDeveloperPayload;
+    }
+
+    public String getToken() {
+        if (mToken == null) {
+            mToken = JsonScanner.getString(mOriginalJson, "token", "purchaseToken", "");
+        }
+        return mToken;
+    }
+
     public String getOriginalJson() { return mOriginalJson; }
     public String getSignature() { return mSignature; }
 
+    private void decodeNumbers() {
+        if (mNumbersDecoded) return;
+        mPurchaseTime = JsonScanner.getLong(mOriginalJson, "purchaseTime", 0);
+        mPurchaseState = JsonScanner.getInt(mOriginalJson, "purchaseState", 0);
+        mNumbersDecoded = true;
+    }
+
     @Override
     public String toString() { return "PurchaseInfo(type:" + mItemType + "):" + mOriginalJson; }
 }
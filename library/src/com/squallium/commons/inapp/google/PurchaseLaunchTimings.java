@@ -0,0 +1,45 @@
+package com.squallium.commons.inapp.google;
+
+/**
+ * Wall-clock breakdown of the launch of a purchase flow (see
+ * {@link IabHelper#launchPurchaseFlow} and {@link IabHelper#launchPurchaseFlowAsync}),
+ * from the call (usually, the user's tap) to the purchase screen being started.
+ *
+ * The launch waits for the asynchronous operations scheduled before it, then
+ * gets the buy intent from the billing service with a getBuyIntent request,
+ * and finally starts the purchase screen on the UI thread. With
+ * launchPurchaseFlowAsync, the request doesn't block the UI thread.
+ */
+public class PurchaseLaunchTimings {
+    boolean mAsync;
+    long mQueuedNanos;
+    long mBuyIntentNanos;
+    long mTotalNanos;
+
+    PurchaseLaunchTimings(boolean async) {
+        mAsync = async;
+    }
+
+    /** Returns whether the buy intent was requested on a worker thread. */
+    public boolean isAsync() { return mAsync; }
+
+    /** Returns the time spent waiting for the previous operations, in milliseconds. */
+    public long getQueuedMillis() { return toMillis(mQueuedNanos); }
+
+    /** Returns the time of the getBuyIntent request, in milliseconds. */
+    public long getBuyIntentMillis() { return toMillis(mBuyIntentNanos); }
+
+    /** Returns the time from the call to the purchase screen being started, in milliseconds. */
+    public long getTotalMillis() { return toMillis(mTotalNanos); }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000L;
+    }
+
+    @Override
+    public String toString() {
+        return "PurchaseLaunchTimings(" + (mAsync ? "async" : "sync") + "): total "
+                + getTotalMillis() + " ms; queued " + getQueuedMillis() + " ms; getBuyIntent "
+                + getBuyIntentMillis() + " ms";
+    }
+}
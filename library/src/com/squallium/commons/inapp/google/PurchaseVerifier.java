@@ -0,0 +1,163 @@
+package com.squallium.commons.inapp.google;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Verifies purchase signatures against a single public key.
+ *
+ * Unlike {@link Security#verify}, the key is decoded only once, when the
+ * verifier is created, and every thread keeps its own {@link Signature}
+ * instance, initialized for that key, which is reused for all the purchases
+ * it verifies. Instances are safe to use from several threads.
+ */
+public class PurchaseVerifier {
+    private static final String TAG = "IABUtil/Security";
+
+    private static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+
+    // Smallest share of a batch worth handing to another thread
+    static final int MIN_PURCHASES_PER_THREAD = 4;
+
+    private final String mBase64PublicKey;
+    private final PublicKey mPublicKey;
+
+    // Purchases already verified with this key (null if not cached)
+    private final VerificationCache mCache;
+    private final byte[] mKeyId;
+
+    // Signature instances initialized for mPublicKey, one per thread
+    private final ThreadLocal<Signature> mSignatures = new ThreadLocal<Signature>();
+
+    /**
+     * Creates a verifier for the given key.
+     *
+     * @param base64PublicKey the base64-encoded public key to use for verifying.
+     * @throws IllegalArgumentException if the key is invalid
+     */
+    public PurchaseVerifier(String base64PublicKey) {
+        this(base64PublicKey, null);
+    }
+
+    /**
+     * Creates a verifier for the given key that skips the purchases found in the cache,
+     * and adds those it verifies.
+     *
+     * @param base64PublicKey the base64-encoded public key to use for verifying.
+     * @param cache the cache of verified purchases, or null to always verify
+     * @throws IllegalArgumentException if the key is invalid
+     */
+    public PurchaseVerifier(String base64PublicKey, VerificationCache cache) {
+        mBase64PublicKey = base64PublicKey;
+        mPublicKey = Security.generatePublicKey(base64PublicKey);
+        mCache = cache;
+        mKeyId = (cache != null) ? VerificationCache.keyId(base64PublicKey) : null;
+    }
+
+    /** Returns the base64-encoded public key of this verifier. */
+    public String getBase64PublicKey() {
+        return mBase64PublicKey;
+    }
+
+    /**
+     * Verifies that the data was signed with the given signature.
+     *
+     * @param signedData the signed JSON string (signed, not encrypted)
+     * @param signature the signature for the data, signed with the private key
+     * @return true if the data and signature match
+     */
+    public boolean verify(String signedData, String signature) {
+        if (TextUtils.isEmpty(signedData) || TextUtils.isEmpty(signature)) {
+            Log.e(TAG, "Purchase verification failed: missing data.");
+            return false;
+        }
+
+        VerificationCache.Key key = (mCache != null)
+                ? mCache.key(mKeyId, signedData, signature) : null;
+        if (key != null && mCache.isVerified(key)) return true;
+
+        if (!verifySignature(signedData, signature)) return false;
+        if (key != null) mCache.putVerified(key);
+        return true;
+    }
+
+    // Checks the signature with RSA
+    private boolean verifySignature(String signedData, String signature) {
+        Signature sig = mSignatures.get();
+        try {
+            if (sig == null) {
+                sig = Signature.getInstance(SIGNATURE_ALGORITHM);
+                sig.initVerify(mPublicKey);
+                mSignatures.set(sig);
+            }
+            // verify() resets the instance, ready for the next purchase
+            if (!Security.verify(sig, signedData, signature)) {
+                Log.e(TAG, "Signature verification failed.");
+                return false;
+            }
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            Log.e(TAG, "NoSuchAlgorithmException.");
+        } catch (InvalidKeyException e) {
+            Log.e(TAG, "Invalid key specification.");
+        } catch (SignatureException e) {
+            Log.e(TAG, "Signature exception.");
+        } catch (Base64DecoderException e) {
+            Log.e(TAG, "Base64 decoding failed.");
+        }
+        // the instance may be half-way through; don't reuse it
+        mSignatures.remove();
+        return false;
+    }
+
+    /**
+     * Verifies a batch of purchases on the calling thread.
+     *
+     * @param signedData the signed JSON strings
+     * @param signatures the signatures, in the same order as signedData
+     * @return whether each purchase is correctly signed, in the same order
+     */
+    public boolean[] verify(List<String> signedData, List<String> signatures) {
+        return verify(signedData, signatures, null, 1);
+    }
+
+    /**
+     * Verifies a batch of purchases, spreading the work over up to parallelism threads:
+     * the calling thread and helpers submitted to the executor. Small batches, which
+     * wouldn't make up for the cost of waking another thread, are verified on the
+     * calling thread.
+     *
+     * @param signedData the signed JSON strings
+     * @param signatures the signatures, in the same order as signedData
+     * @param executor the executor where the helpers are submitted
+     * @param parallelism maximum number of threads verifying at the same time
+     * @return whether each purchase is correctly signed, in the same order
+     */
+    public boolean[] verify(final List<String> signedData, final List<String> signatures,
+            Executor executor, int parallelism) {
+        final boolean[] verified = new boolean[signedData.size()];
+        int threads = Math.min(parallelism, verified.length / MIN_PURCHASES_PER_THREAD);
+        if (executor == null || threads <= 1) {
+            for (int i = 0; i < verified.length; i++) {
+                verified[i] = verify(signedData.get(i), signatures.get(i));
+            }
+            return verified;
+        }
+
+        // every index is written by a single task; forEach() publishes them on return
+        IabParallel.forEach(executor, verified.length, threads, new IabParallel.Task() {
+            public void run(int index) {
+                verified[index] = verify(signedData.get(index), signatures.get(index));
+            }
+        });
+        return verified;
+    }
+}
@@ -30,6 +30,8 @@ import java.security.Signature;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Security-related methods. For a secure implementation, all of this code
@@ -46,6 +48,15 @@ public class Security {
     private static final String KEY_FACTORY_ALGORITHM = "RSA";
     private static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
 
+    // Verifier for the last public key used, so it's only decoded once
+    private static volatile PurchaseVerifier sVerifier;
+
+    // Buffers for the decoded signatures, one per thread
+    private static final ThreadLocal<byte[]> sSignatureBuffers = new ThreadLocal<byte[]>();
+
+    // Purchases already verified, shared by all the keys
+    private static final VerificationCache sVerificationCache = new VerificationCache();
+
     /**
      * Verifies that the data was signed with the given signature, and returns
      * the verified purchase. The data is in JSON format and signed
@@ -62,8 +73,64 @@ public class Security {
             return false;
         }
 
-        PublicKey key = Security.generatePublicKey(base64PublicKey);
-        return Security.verify(key, signedData, signature);
+        return getVerifier(base64PublicKey).verify(signedData, signature);
+    }
+
+    /**
+     * Verifies a batch of purchases, as {@link #verifyPurchase} does for a single one.
+     * @param base64PublicKey the base64-encoded public key to use for verifying.
+     * @param signedData the signed JSON strings
+     * @param signatures the signatures, in the same order as signedData
+     * @return whether each purchase is correctly signed, in the same order
+     */
+    public static boolean[] verifyPurchases(String base64PublicKey, List<String> signedData,
+            List<String> signatures) {
+        return verifyPurchases(base64PublicKey, signedData, signatures, null, 1);
+    }
+
+    /**
+     * Verifies a batch of purchases in parallel, using the calling thread and up to
+     * (parallelism - 1) helpers run by the executor.
+     * @param base64PublicKey the base64-encoded public key to use for verifying.
+     * @param signedData the signed JSON strings
+     * @param signatures the signatures, in the same order as signedData
+     * @param executor the executor that runs the helpers
+     * @param parallelism maximum number of threads verifying at the same time
+     * @return whether each purchase is correctly signed, in the same order
+     */
+    public static boolean[] verifyPurchases(String base64PublicKey, List<String> signedData,
+            List<String> signatures, Executor executor, int parallelism) {
+        if (TextUtils.isEmpty(base64PublicKey)) {
+            Log.e(TAG, "Purchase verification failed: missing data.");
+            return new boolean[signedData.size()];
+        }
+
+        return getVerifier(base64PublicKey).verify(signedData, signatures, executor, parallelism);
+    }
+
+    /**
+     * Returns a verifier for the given key. The verifier of the last key used is cached,
+     * so the key is only decoded again when it changes. Verifiers returned by this method
+     * skip the purchases found in {@link #getVerificationCache}.
+     *
+     * @param base64PublicKey the base64-encoded public key to use for verifying.
+     * @throws IllegalArgumentException if the key is invalid
+     */
+    public static PurchaseVerifier getVerifier(String base64PublicKey) {
+        PurchaseVerifier verifier = sVerifier;
+        if (verifier == null || !verifier.getBase64PublicKey().equals(base64PublicKey)) {
+            verifier = new PurchaseVerifier(base64PublicKey, sVerificationCache);
+            sVerifier = verifier;
+        }
+        return verifier;
+    }
+
+    /**
+     * Returns the cache of verified purchases used by {@link #verifyPurchase} and
+     * {@link #verifyPurchases}, to look at its hit and miss counters or to resize it.
+     */
+    public static VerificationCache getVerificationCache() {
+        return sVerificationCache;
     }
 
     /**
@@ -103,8 +170,7 @@ public class Security {
         try {
             sig = Signature.getInstance(SIGNATURE_ALGORITHM);
             sig.initVerify(publicKey);
-            sig.update(signedData.getBytes());
-            if (!sig.verify(Base64.decode(signature))) {
+            if (!verify(sig, signedData, signature)) {
                 Log.e(TAG, "Signature verification failed.");
                 return false;
             }
@@ -120,4 +186,27 @@ public class Security {
         }
         return false;
     }
+
+    /**
+     * Feeds the data to a Signature initialized for verification and checks the
+     * signature, which is decoded into a buffer reused by the calling thread.
+     *
+     * @param sig Signature instance, initialized for verification
+     * @param signedData signed data from server
+     * @param signature server signature, in base64 encoding
+     * @return true if the data and signature match
+     */
+    static boolean verify(Signature sig, String signedData, String signature)
+            throws SignatureException, Base64DecoderException {
+        int maxLength = Base64.getMaxDecodedLength(signature.length());
+        byte[] buffer = sSignatureBuffers.get();
+        if (buffer == null || buffer.length < maxLength) {
+            buffer = new byte[maxLength];
+            sSignatureBuffers.set(buffer);
+        }
+        int length = Base64.decodeTo(signature, 0, signature.length(), buffer, 0);
+
+        sig.update(signedData.getBytes());
+        return sig.verify(buffer, 0, length);
+    }
 }
@@ -0,0 +1,37 @@
+package com.squallium.commons.inapp.google;
+
+/**
+ * Wall-clock breakdown of the billing support checks made by
+ * {@link IabHelper#startSetup} once the service is connected.
+ *
+ * The in-app products and subscriptions checks run at the same time on worker
+ * threads, so the total time is close to the slowest of them instead of the
+ * sum of both.
+ */
+public class SetupTimings {
+    long mTotalNanos;
+    long mInAppNanos;
+    long mSubsNanos;
+
+    SetupTimings() {
+    }
+
+    /** Returns the total time of the checks, in milliseconds. */
+    public long getTotalMillis() { return toMillis(mTotalNanos); }
+
+    /** Returns the time of the isBillingSupported check of the given item type, in milliseconds. */
+    public long getCheckMillis(String itemType) {
+        return toMillis(IabHelper.ITEM_TYPE_SUBS.equals(itemType) ? mSubsNanos : mInAppNanos);
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000L;
+    }
+
+    @Override
+    public String toString() {
+        return "SetupTimings: total " + getTotalMillis() + " ms; inapp "
+                + getCheckMillis(IabHelper.ITEM_TYPE_INAPP) + " ms; subs "
+                + getCheckMillis(IabHelper.ITEM_TYPE_SUBS) + " ms";
+    }
+}
@@ -0,0 +1,172 @@
+package com.squallium.commons.inapp.google;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide {@link IabHelper} instances, shared by reference counting.
+ *
+ * Instead of creating (and setting up) a helper in every Activity, acquire the
+ * shared one for the app's public key in onCreate and release it in onDestroy,
+ * along with the setup listener, which would otherwise keep the Activity until
+ * the setup finishes. The first acquisition creates the helper, bound to the
+ * application context, and starts its setup; the following ones reuse the same
+ * connection, and get the result of the setup as soon as it is known. The latest
+ * inventory queried by any of its users is available from
+ * {@link IabHelper#getLatestInventory}.
+ *
+ * When the last reference is released, the helper is kept for
+ * {@link #RELEASE_DELAY_MILLIS} before it is disposed of, so that going from
+ * one Activity to the next (which may destroy the first one before creating the
+ * second) doesn't tear down the connection. A helper whose setup failed is not
+ * shared anymore: the next acquisition creates a new one.
+ *
+ * All the methods must be called from the UI thread, where the setup listeners
+ * are called back.
+ */
+public class SharedIabHelper {
+    // How long an unreferenced helper is kept before it is disposed of
+    public static final long RELEASE_DELAY_MILLIS = 10 * 1000;
+
+    // The helpers that can be acquired, by public key
+    private static final Map<String, Entry> sEntries = new HashMap<String, Entry>();
+
+    // All the helpers that haven't been disposed of yet
+    private static final Map<IabHelper, Entry> sByHelper = new IdentityHashMap<IabHelper, Entry>();
+
+    /** Defeats instantiation. */
+    private SharedIabHelper() {
+    }
+
+    /**
+     * Returns the shared helper for a public key, creating and setting it up if needed.
+     * Every call must be balanced by a call to {@link #release}.
+     *
+     * @param context Any context of the app; only the application context is kept.
+     * @param base64PublicKey The app's public key (see {@link IabHelper#IabHelper}).
+     * @param listener Notified with the result of the setup: later, if it is in
+     *     progress, or right after this call returns if it is already done. May be null.
+     * @return The helper.
+     */
+    public static IabHelper acquire(Context context, String base64PublicKey,
+                                    IabHelper.OnIabSetupFinishedListener listener) {
+        Entry entry = sEntries.get(base64PublicKey);
+        boolean created = (entry == null);
+        if (created) {
+            entry = new Entry(base64PublicKey,
+                    new IabHelper(context.getApplicationContext(), base64PublicKey));
+            sEntries.put(base64PublicKey, entry);
+            sByHelper.put(entry.mHelper, entry);
+        }
+        entry.mRefCount++;
+        entry.mHandler.removeCallbacks(entry);
+        entry.addListener(listener);
+        if (created) entry.mHelper.startSetup(entry);
+        return entry.mHelper;
+    }
+
+    /**
+     * Releases a reference to a shared helper. The helper is disposed of shortly after
+     * its last reference is released; it must not be used after this call.
+     *
+     * @param helper A helper returned by {@link #acquire}.
+     */
+    public static void release(IabHelper helper) {
+        release(helper, null);
+    }
+
+    /**
+     * Releases a reference to a shared helper, like {@link #release(IabHelper)}, and
+     * forgets the setup listener passed to {@link #acquire} if the setup hasn't finished
+     * yet. Use it when the listener holds on to an Activity that is being destroyed.
+     *
+     * @param helper A helper returned by {@link #acquire}.
+     * @param listener The listener passed to acquire. May be null.
+     */
+    public static void release(IabHelper helper, IabHelper.OnIabSetupFinishedListener listener) {
+        Entry entry = sByHelper.get(helper);
+        if (entry == null || entry.mRefCount == 0) {
+            throw new IllegalStateException("IabHelper released more times than acquired.");
+        }
+        if (listener != null) entry.mListeners.remove(listener);
+        if (--entry.mRefCount > 0) return;
+        if (entry.isShared()) {
+            entry.mHandler.postDelayed(entry, RELEASE_DELAY_MILLIS);
+        }
+        else {
+            entry.run();
+        }
+    }
+
+    /** Returns the number of references to a shared helper (0 if it was disposed of). */
+    public static int getRefCount(IabHelper helper) {
+        Entry entry = sByHelper.get(helper);
+        return (entry != null) ? entry.mRefCount : 0;
+    }
+
+    // A shared helper, its references and the outcome of its setup. Runs to dispose
+    // of the helper once unreferenced.
+    static class Entry implements Runnable, IabHelper.OnIabSetupFinishedListener {
+        final String mKey;
+        final IabHelper mHelper;
+        final Handler mHandler = new Handler(Looper.getMainLooper());
+        int mRefCount;
+
+        // The result of the setup (null while in progress)
+        IabResult mSetupResult;
+
+        // Listeners waiting for the setup to finish
+        final List<IabHelper.OnIabSetupFinishedListener> mListeners =
+                new ArrayList<IabHelper.OnIabSetupFinishedListener>();
+
+        Entry(String key, IabHelper helper) {
+            mKey = key;
+            mHelper = helper;
+        }
+
+        boolean isShared() {
+            return sEntries.get(mKey) == this;
+        }
+
+        void addListener(final IabHelper.OnIabSetupFinishedListener listener) {
+            if (listener == null) return;
+            final IabResult result = mSetupResult;
+            if (result == null) {
+                mListeners.add(listener);
+                return;
+            }
+            mHandler.post(new Runnable() {
+                public void run() {
+                    listener.onIabSetupFinished(result);
+                }
+            });
+        }
+
+        public void onIabSetupFinished(IabResult result) {
+            mSetupResult = result;
+            // a failed setup isn't retried: the next acquisition starts over
+            if (result.isFailure() && isShared()) sEntries.remove(mKey);
+            List<IabHelper.OnIabSetupFinishedListener> listeners =
+                    new ArrayList<IabHelper.OnIabSetupFinishedListener>(mListeners);
+            mListeners.clear();
+            for (IabHelper.OnIabSetupFinishedListener listener : listeners) {
+                listener.onIabSetupFinished(result);
+            }
+        }
+
+        public void run() {
+            if (mRefCount > 0) return;
+            if (isShared()) sEntries.remove(mKey);
+            sByHelper.remove(mHelper);
+            mListeners.clear();
+            mHelper.dispose();
+        }
+    }
+}
@@ -16,40 +16,58 @@
 package com.squallium.commons.inapp.google;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
 /**
  * Represents an in-app product's listing details.
+ *
+ * The JSON of the details is checked when they are created, but its fields
+ * are only decoded the first time they are read.
  */
 public class SkuDetails {
     String mItemType;
+    String mJson;
+
+    // Fields decoded from mJson on first access (null until then)
     String mSku;
     String mType;
     String mPrice;
     String mTitle;
     String mDescription;
-    String mJson;
 
     public SkuDetails(String jsonSkuDetails) throws JSONException {
         this(IabHelper.ITEM_TYPE_INAPP, jsonSkuDetails);
     }
 
     public SkuDetails(String itemType, String jsonSkuDetails) throws JSONException {
+        JsonScanner.checkObject(jsonSkuDetails);
         mItemType = itemType;
         mJson = jsonSkuDetails;
-        JSONObject o = new JSONObject(mJson);
-        mSku = o.optString("productId");
-        mType = o.optString("type");
-        mPrice = o.optString("price");
-        mTitle = o.optString("title");
-        mDescription = o.optString("description");
-    }
-
-    public String getSku() { return mSku; }
-    public String getType() { return mType; }
-    public String getPrice() { return mPrice; }
-    public String getTitle() { return mTitle; }
-    public String getDescription() { return mDescription; }
+    }
+
+    public String getSku() {
+        if (mSku == null) mSku = JsonScanner.getString(mJson, "productId", "");
+        return mSku;
+    }
+
+    public String getType() {
+        if (mType == null) mType = JsonScanner.getString(mJson, "type", "");
+        return mType;
+    }
+
+    public String getPrice() {
+        if (mPrice == null) mPrice = JsonScanner.getString(mJson, "price", "");
+        return mPrice;
+    }
+
+    public String getTitle() {
+        if (mTitle == null) mTitle = JsonScanner.getString(mJson, "title", "");
+        return mTitle;
+    }
+
+    public String getDescription() {
+        if (mDescription == null) mDescription = JsonScanner.getString(mJson, "description", "");
+        return mDescription;
+    }
 
     @Override
     public String toString() {
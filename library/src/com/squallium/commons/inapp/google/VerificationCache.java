@@ -0,0 +1,188 @@
+package com.squallium.commons.inapp.google;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the purchases whose signature has been verified, so that purchases
+ * that don't change between inventory refreshes aren't verified with RSA again.
+ * Failed verifications are not remembered: they are rare, and they may be
+ * caused by a transient problem of the security provider.
+ *
+ * Entries are keyed by a SHA-256 digest of the public key, the signed data and
+ * the signature; the data itself is not kept. The cache is bounded: once it holds
+ * {@link #getMaxSize} entries, the least recently used one is evicted. Instances
+ * are safe to use from several threads.
+ */
+public class VerificationCache {
+    // Default maximum number of entries
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    // Digests of the verified purchases, in access order (eldest first)
+    private final LinkedHashMap<Key, Boolean> mEntries =
+            new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+                    return size() > mMaxSize;
+                }
+            };
+
+    private int mMaxSize;
+    private long mHitCount;
+    private long mMissCount;
+
+    // Digest instances, one per thread
+    private final ThreadLocal<MessageDigest> mDigests = new ThreadLocal<MessageDigest>();
+
+    /** Creates a cache of {@link #DEFAULT_MAX_SIZE} entries. */
+    public VerificationCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize Maximum number of entries; 0 disables the cache.
+     */
+    public VerificationCache(int maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * Changes the maximum number of entries, evicting the least recently used
+     * ones if needed. 0 disables the cache.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 0) throw new IllegalArgumentException("maxSize must not be negative");
+        mMaxSize = maxSize;
+        while (mEntries.size() > maxSize) {
+            mEntries.remove(mEntries.keySet().iterator().next());
+        }
+    }
+
+    public synchronized int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /** Returns the number of entries in the cache. */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /** Returns how many lookups found a verified purchase. */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /** Returns how many lookups had to verify the purchase. */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /** Removes all the entries and resets the counters. */
+    public synchronized void clear() {
+        mEntries.clear();
+        mHitCount = 0;
+        mMissCount = 0;
+    }
+
+    /**
+     * Computes the key of a verification.
+     *
+     * @param keyId Identifies the public key (see {@link #keyId}).
+     * @param signedData the signed JSON string
+     * @param signature the signature for the data
+     * @return The key, or null if the cache is disabled.
+     */
+    Key key(byte[] keyId, String signedData, String signature) {
+        if (getMaxSize() == 0) return null;
+
+        MessageDigest digest = getDigest();
+        digest.update(keyId);
+        update(digest, signedData);
+        update(digest, signature);
+        return new Key(digest.digest());
+    }
+
+    /** Returns whether the purchase of the key has already been verified. */
+    synchronized boolean isVerified(Key key) {
+        if (mEntries.get(key) != null) {
+            mHitCount++;
+            return true;
+        }
+        mMissCount++;
+        return false;
+    }
+
+    /** Remembers that the purchase of the key has been verified. */
+    synchronized void putVerified(Key key) {
+        if (mMaxSize > 0) mEntries.put(key, Boolean.TRUE);
+    }
+
+    /** Returns the identifier of a public key to pass to {@link #key}. */
+    static byte[] keyId(String base64PublicKey) {
+        MessageDigest digest = newDigest();
+        update(digest, base64PublicKey);
+        return digest.digest();
+    }
+
+    private MessageDigest getDigest() {
+        MessageDigest digest = mDigests.get();
+        if (digest == null) {
+            digest = newDigest();
+            mDigests.set(digest);
+        }
+        return digest;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Adds a length-prefixed string, so that the boundaries between fields are unambiguous
+    private static void update(MessageDigest digest, String s) {
+        byte[] bytes;
+        try {
+            bytes = s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        int length = bytes.length;
+        digest.update((byte) (length >>> 24));
+        digest.update((byte) (length >>> 16));
+        digest.update((byte) (length >>> 8));
+        digest.update((byte) length);
+        digest.update(bytes);
+    }
+
+    // A digest, usable as a map key
+    static class Key {
+        final byte[] mDigest;
+        final int mHash;
+
+        Key(byte[] digest) {
+            mDigest = digest;
+            mHash = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(mDigest, ((Key) o).mDigest);
+        }
+    }
+}